@@ -10,11 +10,15 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.Date;
 
 @SpringBootApplication
+@EnableScheduling
 public class SpringWebfluxApiRestApplication implements CommandLineRunner {
 
 	private static final Logger LOG = LoggerFactory.getLogger(SpringWebfluxApiRestApplication.class);
@@ -25,22 +29,23 @@ public class SpringWebfluxApiRestApplication implements CommandLineRunner {
 	private ReactiveMongoTemplate mongoTemplate;
 
 	public static void main(String[] args) {
+		// Instruments the Reactor schedulers created from now on, bounded-elastic and rendition workers included
+		Schedulers.enableMetrics();
 		SpringApplication.run(SpringWebfluxApiRestApplication.class, args);
 	}
 
 	@Override
 	public void run(String... args) {
 
-		mongoTemplate.dropCollection("products").subscribe();
-		mongoTemplate.dropCollection("categories").subscribe();
-
 		Category electronics = new Category("Electronics");
 		Category sports = new Category("Sports");
 		Category computing = new Category("Computing");
 		Category furniture = new Category("Furniture");
 
 		Flux
-				.just(electronics, sports, computing, furniture)
+				.just("products", "categories", "images")
+				.concatMap(collection -> mongoTemplate.remove(new Query(), collection))
+				.thenMany(Flux.just(electronics, sports, computing, furniture))
 				.flatMap(productService::saveCategory)
 				.doOnNext(c -> LOG.info(String.format("Insert: %s", c)))
 				.thenMany(
@@ -0,0 +1,105 @@
+package com.pragma.webflux.api.controller;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limit that adapts to latency, after TCP Vegas: the lowest latency seen is taken
+ * as the latency without queueing, and {@code limit * (1 - minLatency / latency)} estimates
+ * how many requests are queued downstream (Mongo connections, disk). Few queued requests grow
+ * the limit, many shrink it, so excess load is turned away instead of waiting in line and the
+ * latency of admitted requests stays flat.
+ * <p>
+ * Admission is a compare-and-set on the in-flight count. The minimum latency is forgotten every
+ * {@code probeInterval} samples so that the limiter follows a permanently slower backend.
+ */
+final class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int probeInterval;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+
+    private double estimatedLimit;
+    private long minLatency = Long.MAX_VALUE;
+    private int samples;
+
+    AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int probeInterval) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Expected 1 <= minLimit <= initialLimit <= maxLimit");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.probeInterval = probeInterval;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+    }
+
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases an admitted request.
+     *
+     * @param latencyNanos time the request took
+     * @param completed    false for failed or cancelled requests, their latency is not a sample
+     */
+    void release(long latencyNanos, boolean completed) {
+        int current = inFlight.getAndDecrement();
+        if (completed) {
+            sample(latencyNanos, current);
+        } else {
+            dropped();
+        }
+    }
+
+    private synchronized void sample(long latency, int inFlightAtEnd) {
+        if (++samples >= probeInterval) {
+            samples = 0;
+            minLatency = latency;
+        }
+        minLatency = Math.min(minLatency, Math.max(1, latency));
+        // a limit far above the actual concurrency says nothing about queueing
+        if (inFlightAtEnd * 2 < estimatedLimit) {
+            return;
+        }
+        double step = Math.max(1, Math.log10(estimatedLimit));
+        double queued = estimatedLimit * (1 - (double) minLatency / Math.max(minLatency, latency));
+        if (queued <= step) {
+            estimatedLimit += 3 * step;
+        } else if (queued < 3 * step) {
+            estimatedLimit += step;
+        } else if (queued > 6 * step) {
+            estimatedLimit -= step;
+        }
+        update();
+    }
+
+    private synchronized void dropped() {
+        estimatedLimit -= Math.max(1, Math.log10(estimatedLimit));
+        update();
+    }
+
+    private void update() {
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+}
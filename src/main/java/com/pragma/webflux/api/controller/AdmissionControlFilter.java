@@ -0,0 +1,116 @@
+package com.pragma.webflux.api.controller;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control in front of both API stacks, so that overload is answered with
+ * {@code 429 Too Many Requests} and a {@code Retry-After} header instead of queueing:
+ * <ul>
+ *     <li>every API request takes a token from its client's bucket, the client being identified
+ *     by {@link ApiClients};</li>
+ *     <li>writes and uploads are also held to an {@link AdaptiveConcurrencyLimiter}, they are the
+ *     requests that queue on Mongo and the disk.</li>
+ * </ul>
+ * Rejections are counted as {@value #REJECTED} tagged with the limiter, the concurrency limit and
+ * the writes in flight are exported as gauges.
+ */
+@Component
+public class AdmissionControlFilter implements WebFilter, Ordered {
+
+    public static final String REJECTED = "admission.rejected";
+
+    private static final String API_PATH = "/api/";
+    private static final long CONCURRENCY_RETRY_AFTER = 1;
+
+    private final boolean enabled;
+    private final ApiClients clients;
+    private final TokenBucketRateLimiter rateLimiter;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final Counter rateRejected;
+    private final Counter concurrencyRejected;
+
+    public AdmissionControlFilter(MeterRegistry registry,
+                                  ApiClients clients,
+                                  @Value("${admission.enabled}") boolean enabled,
+                                  @Value("${admission.rate.requests-per-second}") double requestsPerSecond,
+                                  @Value("${admission.rate.burst}") int burst,
+                                  @Value("${admission.rate.max-clients}") int maxClients,
+                                  @Value("${admission.concurrency.initial-limit}") int initialLimit,
+                                  @Value("${admission.concurrency.min-limit}") int minLimit,
+                                  @Value("${admission.concurrency.max-limit}") int maxLimit,
+                                  @Value("${admission.concurrency.probe-interval}") int probeInterval) {
+        this.enabled = enabled;
+        this.clients = clients;
+        this.rateLimiter = new TokenBucketRateLimiter(requestsPerSecond, burst, maxClients, System::nanoTime);
+        this.concurrencyLimiter = new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit, probeInterval);
+        this.rateRejected = Counter.builder(REJECTED).tag("limiter", "rate").register(registry);
+        this.concurrencyRejected = Counter.builder(REJECTED).tag("limiter", "concurrency").register(registry);
+        Gauge.builder("admission.rate.clients", rateLimiter, TokenBucketRateLimiter::clients).register(registry);
+        Gauge.builder("admission.concurrency.limit", concurrencyLimiter, AdaptiveConcurrencyLimiter::limit).register(registry);
+        Gauge.builder("admission.concurrency.in.flight", concurrencyLimiter, AdaptiveConcurrencyLimiter::inFlight).register(registry);
+    }
+
+    @Override
+    public int getOrder() {
+        // after the http.server.requests metrics filter, rejections are timed like any other response
+        return Ordered.HIGHEST_PRECEDENCE + 10;
+    }
+
+    /**
+     * Tokens and permits are taken on subscription, a filter chain that is assembled but never
+     * subscribed to holds no permit it would never release.
+     */
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        if (!enabled || !request.getPath().pathWithinApplication().value().startsWith(API_PATH)) {
+            return chain.filter(exchange);
+        }
+        return Mono.defer(() -> {
+            long wait = rateLimiter.tryAcquire(clients.of(request));
+            if (wait > 0) {
+                rateRejected.increment();
+                return reject(exchange, Math.max(1, (wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1)));
+            }
+            if (!isWrite(request.getMethod())) {
+                return chain.filter(exchange);
+            }
+            if (!concurrencyLimiter.tryAcquire()) {
+                concurrencyRejected.increment();
+                return reject(exchange, CONCURRENCY_RETRY_AFTER);
+            }
+            long start = System.nanoTime();
+            return chain.filter(exchange)
+                    .doFinally(signal -> concurrencyLimiter.release(System.nanoTime() - start, signal == SignalType.ON_COMPLETE));
+        });
+    }
+
+    private static boolean isWrite(HttpMethod method) {
+        return method == HttpMethod.POST || method == HttpMethod.PUT
+                || method == HttpMethod.PATCH || method == HttpMethod.DELETE;
+    }
+
+    private static Mono<Void> reject(ServerWebExchange exchange, long retryAfterSeconds) {
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        return response.setComplete();
+    }
+}
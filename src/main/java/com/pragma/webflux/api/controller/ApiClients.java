@@ -0,0 +1,79 @@
+package com.pragma.webflux.api.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Identifies the client of a request for rate limiting and for scoping idempotency keys.
+ * <p>
+ * The {@code admission.rate.api-key-header} header only identifies the client when it carries
+ * one of the {@code admission.rate.api-keys}, anybody can send a header and a fresh key per
+ * request would get a fresh bucket. Other requests are identified by the address of their socket.
+ * <p>
+ * {@code X-Forwarded-For} is only read on connections from one of the
+ * {@code admission.rate.trusted-proxies}, and from the right: proxies append the address they
+ * received the request from, the left values are whatever the client sent. The client is the
+ * rightmost address that is not a trusted proxy itself.
+ */
+@Component
+public class ApiClients {
+
+    static final String FORWARDED_FOR = "X-Forwarded-For";
+
+    private final String apiKeyHeader;
+    private final Set<String> apiKeys;
+    private final Set<String> trustedProxies;
+
+    public ApiClients(@Value("${admission.rate.api-key-header}") String apiKeyHeader,
+                      @Value("${admission.rate.api-keys}") Set<String> apiKeys,
+                      @Value("${admission.rate.trusted-proxies}") Set<String> trustedProxies) {
+        this.apiKeyHeader = apiKeyHeader;
+        this.apiKeys = Set.copyOf(apiKeys);
+        this.trustedProxies = Set.copyOf(trustedProxies);
+    }
+
+    /**
+     * The API key of the request when it is a known one, its client address otherwise.
+     */
+    public String of(ServerHttpRequest request) {
+        String apiKey = request.getHeaders().getFirst(apiKeyHeader);
+        if (apiKey != null && apiKeys.contains(apiKey)) {
+            return "key:" + apiKey;
+        }
+        InetSocketAddress address = request.getRemoteAddress();
+        if (address == null) {
+            return "ip:unknown";
+        }
+        String client = address.getAddress() == null ? address.getHostString() : address.getAddress().getHostAddress();
+        if (trustedProxies.contains(client)) {
+            client = forwardedFor(request.getHeaders().get(FORWARDED_FOR), client);
+        }
+        return "ip:" + client;
+    }
+
+    private String forwardedFor(List<String> headers, String proxy) {
+        if (headers == null) {
+            return proxy;
+        }
+        String client = proxy;
+        for (int i = headers.size() - 1; i >= 0; i--) {
+            String[] hops = headers.get(i).split(",");
+            for (int j = hops.length - 1; j >= 0; j--) {
+                String hop = hops[j].trim();
+                if (hop.isEmpty()) {
+                    continue;
+                }
+                if (!trustedProxies.contains(hop)) {
+                    return hop;
+                }
+                client = hop;
+            }
+        }
+        return client;
+    }
+}
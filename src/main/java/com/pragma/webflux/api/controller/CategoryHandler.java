@@ -0,0 +1,111 @@
+package com.pragma.webflux.api.controller;
+
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.service.IProductService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+
+import static org.springframework.web.reactive.function.BodyInserters.fromValue;
+
+@Component
+public class CategoryHandler {
+
+    @Autowired
+    private IProductService productService;
+
+    public Mono<ServerResponse> list(ServerRequest request) {
+        return ServerResponse
+                .ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(productService.findAllCategories(), Category.class);
+    }
+
+    public Mono<ServerResponse> getCategory(ServerRequest request) {
+        return productService
+                .findCategoryById(request.pathVariable("id"))
+                .flatMap(c ->
+                        ServerResponse
+                                .ok()
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .body(fromValue(c)))
+                .switchIfEmpty(
+                        ServerResponse
+                                .notFound()
+                                .build());
+    }
+
+    /**
+     * Ids are always generated, a category is renamed through {@link #renameCategory(ServerRequest)}.
+     */
+    public Mono<ServerResponse> createCategory(ServerRequest request) {
+        return request.bodyToMono(Category.class)
+                .flatMap(c -> {
+                    List<String> errors = validate(c);
+                    if (!errors.isEmpty()) {
+                        return ServerResponse
+                                .badRequest()
+                                .body(fromValue(errors));
+                    }
+                    c.setId(null);
+                    return productService.saveCategory(c)
+                            .flatMap(cdb -> ServerResponse
+                                    .created(URI.create(cdb.getId()))
+                                    .contentType(MediaType.APPLICATION_JSON)
+                                    .body(fromValue(cdb)));
+                })
+                .onErrorResume(DuplicateKeyException.class, e ->
+                        ServerResponse
+                                .status(HttpStatus.CONFLICT)
+                                .build());
+    }
+
+    /**
+     * The new name is also written to every product of the category.
+     */
+    public Mono<ServerResponse> renameCategory(ServerRequest request) {
+        return productService
+                .findCategoryById(request.pathVariable("id"))
+                .flatMap(c -> request.bodyToMono(Category.class)
+                        .flatMap(changes -> {
+                            List<String> errors = validate(changes);
+                            if (!errors.isEmpty()) {
+                                return ServerResponse
+                                        .badRequest()
+                                        .body(fromValue(errors));
+                            }
+                            c.setName(changes.getName());
+                            return productService.saveCategory(c)
+                                    .flatMap(cdb -> ServerResponse
+                                            .ok()
+                                            .contentType(MediaType.APPLICATION_JSON)
+                                            .body(fromValue(cdb)));
+                        }))
+                .switchIfEmpty(
+                        ServerResponse
+                                .notFound()
+                                .build())
+                .onErrorResume(DuplicateKeyException.class, e ->
+                        ServerResponse
+                                .status(HttpStatus.CONFLICT)
+                                .build());
+    }
+
+    /**
+     * The category id is only required where products embed it, here the name is the only field.
+     */
+    static List<String> validate(Category c) {
+        return c.getName() == null || c.getName().trim().isEmpty()
+                ? Collections.singletonList("Field: 'name', must not be empty")
+                : Collections.emptyList();
+    }
+}
@@ -0,0 +1,100 @@
+package com.pragma.webflux.api.controller;
+
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.service.IProductService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/categories")
+public class CategoryRestController {
+
+    @Autowired
+    private IProductService productService;
+
+    @GetMapping
+    public Mono<ResponseEntity<Flux<Category>>> listCategories() {
+        return Mono.just(ResponseEntity
+                .ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(productService.findAllCategories()));
+    }
+
+    @GetMapping("/{id}")
+    public Mono<ResponseEntity<Category>> getCategory(
+            @PathVariable String id
+    ) {
+        return productService.findCategoryById(id)
+                .map(c -> ResponseEntity
+                        .ok()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .body(c))
+                .defaultIfEmpty(ResponseEntity
+                        .notFound().build());
+    }
+
+    @PostMapping
+    public Mono<ResponseEntity<Map<String, Object>>> createCategory(
+            @RequestBody Category category
+    ) {
+        Map<String, Object> response = new HashMap<>();
+        List<String> errors = CategoryHandler.validate(category);
+        if (!errors.isEmpty()) {
+            response.put("errors", errors);
+            return Mono.just(ResponseEntity
+                    .badRequest()
+                    .body(response));
+        }
+        category.setId(null);
+        return productService.saveCategory(category)
+                .map(c -> {
+                    response.put("Category", c);
+                    return ResponseEntity
+                            .created(URI.create("/api/categories/" + c.getId()))
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .body(response);
+                })
+                .onErrorResume(DuplicateKeyException.class, e ->
+                        Mono.just(ResponseEntity
+                                .status(HttpStatus.CONFLICT).build()));
+    }
+
+    /**
+     * The new name is also written to every product of the category.
+     */
+    @PutMapping("/{id}")
+    public Mono<ResponseEntity<Category>> renameCategory(
+            @PathVariable String id,
+            @RequestBody Category changes
+    ) {
+        if (!CategoryHandler.validate(changes).isEmpty()) {
+            return Mono.just(ResponseEntity
+                    .badRequest().build());
+        }
+        return productService.findCategoryById(id)
+                .flatMap(c -> {
+                    c.setName(changes.getName());
+                    return productService.saveCategory(c);
+                })
+                .map(c -> ResponseEntity
+                        .ok()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .body(c))
+                .defaultIfEmpty(ResponseEntity
+                        .notFound().build())
+                .onErrorResume(DuplicateKeyException.class, e ->
+                        Mono.just(ResponseEntity
+                                .status(HttpStatus.CONFLICT).build()));
+    }
+}
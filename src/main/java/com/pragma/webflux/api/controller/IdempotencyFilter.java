@@ -0,0 +1,354 @@
+package com.pragma.webflux.api.controller;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.bson.Document;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Makes the retries of product creations and image uploads safe: a POST carrying an
+ * {@value #HEADER} header runs once per {@link ApiClients client} and key, its response is
+ * recorded and replayed to the retries, marked with {@value #REPLAYED}, without reaching the
+ * handlers again.
+ * <p>
+ * The request runs detached from its caller: a client that times out and disconnects does not
+ * cancel it, and a retry arriving while it is running waits for its response. Responses are
+ * kept for {@code idempotency.ttl} in memory, bounded by {@code idempotency.max-memory}.
+ * Server errors and responses over {@code idempotency.max-response-size} are not kept, the
+ * request runs again on retry; so does a request that failed without a response.
+ * <p>
+ * With {@code idempotency.mongo.enabled} the keys are also claimed in the
+ * {@value #COLLECTION} collection, whose TTL index drops them on expiry, so that instances
+ * share them: a retry reaching another instance replays the saved response, or gets a
+ * {@code 409 Conflict} with a {@code Retry-After} header while the first request is running.
+ */
+@Component
+public class IdempotencyFilter implements WebFilter, Ordered {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IdempotencyFilter.class);
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED = "Idempotent-Replayed";
+
+    static final String COLLECTION = "idempotencyKeys";
+
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final String INVALID_KEY = "Header: '" + HEADER + "', must be 1 to " + MAX_KEY_LENGTH + " characters";
+    private static final List<String> UNRECORDED_HEADERS = Arrays.asList(HttpHeaders.CONTENT_LENGTH,
+            HttpHeaders.TRANSFER_ENCODING, HttpHeaders.CONNECTION);
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final ApiClients clients;
+    private final List<PathPattern> paths;
+    private final Duration ttl;
+    private final long maxResponseSize;
+    private final boolean shared;
+    private final Duration claimTimeout;
+
+    private final Cache<String, IdempotentResponse> responses;
+    private final Map<String, CompletableFuture<IdempotentResponse>> inFlight = new ConcurrentHashMap<>();
+
+    public IdempotencyFilter(ReactiveMongoTemplate mongoTemplate,
+                             ApiClients clients,
+                             @Value("${idempotency.enabled}") boolean enabled,
+                             @Value("${api.endpoint}") String endpoint,
+                             @Value("${idempotency.ttl}") Duration ttl,
+                             @Value("${idempotency.max-memory}") DataSize maxMemory,
+                             @Value("${idempotency.max-response-size}") DataSize maxResponseSize,
+                             @Value("${idempotency.mongo.enabled}") boolean shared,
+                             @Value("${idempotency.mongo.claim-timeout}") Duration claimTimeout) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+        this.clients = clients;
+        this.paths = Arrays.asList(endpoint, endpoint + "upload/*", endpoint + "uploadWithImage",
+                        "/api/products", "/api/products/upload/*")
+                .stream()
+                .map(PathPatternParser.defaultInstance::parse)
+                .collect(Collectors.toList());
+        this.ttl = ttl;
+        this.maxResponseSize = maxResponseSize.toBytes();
+        this.shared = shared;
+        this.claimTimeout = claimTimeout;
+        this.responses = Caffeine.newBuilder()
+                .maximumWeight(maxMemory.toBytes())
+                .<String, IdempotentResponse>weigher((key, response) -> key.length() + response.size())
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    @Override
+    public int getOrder() {
+        // after admission control, retries count against the rate limits like any request
+        return Ordered.HIGHEST_PRECEDENCE + 20;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndex() {
+        if (!shared) {
+            return;
+        }
+        mongoTemplate.indexOps(COLLECTION)
+                .ensureIndex(new Index().on("expiresAt", Sort.Direction.ASC).expire(Duration.ZERO).named("expiresAt_ttl"))
+                .subscribe(null, e -> LOG.warn(String.format("Could not ensure the TTL index of %s", COLLECTION), e));
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        String key = request.getHeaders().getFirst(HEADER);
+        if (!enabled || key == null || request.getMethod() != HttpMethod.POST || !idempotent(request)) {
+            return chain.filter(exchange);
+        }
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            ServerHttpResponse response = exchange.getResponse();
+            response.setStatusCode(HttpStatus.BAD_REQUEST);
+            return response.writeWith(Mono.fromSupplier(() ->
+                    response.bufferFactory().wrap(INVALID_KEY.getBytes(StandardCharsets.UTF_8))));
+        }
+        String scoped = clients.of(request)
+                + " " + request.getPath().pathWithinApplication().value() + " " + key;
+        return execute(exchange, chain, scoped);
+    }
+
+    private boolean idempotent(ServerHttpRequest request) {
+        PathContainer path = request.getPath().pathWithinApplication();
+        return paths.stream().anyMatch(pattern -> pattern.matches(path));
+    }
+
+    private Mono<Void> execute(ServerWebExchange exchange, WebFilterChain chain, String key) {
+        return Mono.defer(() -> {
+            IdempotentResponse recorded = responses.getIfPresent(key);
+            if (recorded != null) {
+                return recorded.asReplay().writeTo(exchange.getResponse());
+            }
+            CompletableFuture<IdempotentResponse> started = new CompletableFuture<>();
+            CompletableFuture<IdempotentResponse> flight = inFlight.putIfAbsent(key, started);
+            if (flight != null) {
+                // the first request failed without a response, this one runs in its place
+                return Mono.fromFuture(flight)
+                        .flatMap(response -> response.asReplay().writeTo(exchange.getResponse()))
+                        .onErrorResume(e -> execute(exchange, chain, key));
+            }
+            run(exchange, chain, key, started);
+            return Mono.fromFuture(started).flatMap(response -> response.writeTo(exchange.getResponse()));
+        });
+    }
+
+    /**
+     * Runs the request detached from its caller, like {@code SingleFlight}: a client that
+     * disconnects does not cancel it, and its response is still recorded for the retries.
+     */
+    private void run(ServerWebExchange exchange, WebFilterChain chain, String key,
+                     CompletableFuture<IdempotentResponse> started) {
+        claim(key)
+                .doOnNext(existing -> {
+                    if (!existing.isInProgress()) {
+                        responses.put(key, existing);
+                    }
+                })
+                .switchIfEmpty(Mono.defer(() -> {
+                    Recorder recorder = new Recorder(exchange.getResponse());
+                    return chain.filter(exchange.mutate().response(recorder).build())
+                            .then(Mono.fromSupplier(recorder::response))
+                            .flatMap(response -> record(key, response));
+                }))
+                .subscribe(
+                        response -> {
+                            inFlight.remove(key, started);
+                            started.complete(response);
+                        },
+                        error -> {
+                            inFlight.remove(key, started);
+                            release(key);
+                            started.completeExceptionally(error);
+                        });
+    }
+
+    private Mono<IdempotentResponse> record(String key, IdempotentResponse response) {
+        if (response.status() >= HttpStatus.INTERNAL_SERVER_ERROR.value() || response.size() > maxResponseSize) {
+            release(key);
+            return Mono.just(response);
+        }
+        responses.put(key, response);
+        return save(key, response).thenReturn(response);
+    }
+
+    /**
+     * Claims the key in Mongo.
+     *
+     * @return empty when the request is to run here, otherwise the response to answer with
+     */
+    private Mono<IdempotentResponse> claim(String key) {
+        if (!shared) {
+            return Mono.empty();
+        }
+        Document claim = new Document("_id", key).append("expiresAt", expiry(claimTimeout));
+        return mongoTemplate.insert(claim, COLLECTION)
+                .then(Mono.<IdempotentResponse>empty())
+                .onErrorResume(DuplicateKeyException.class, e -> mongoTemplate.findById(key, Document.class, COLLECTION)
+                        .map(saved -> Optional.ofNullable(IdempotentResponse.fromDocument(saved))
+                                .orElseGet(IdempotentResponse::conflict)))
+                .onErrorResume(e -> !(e instanceof DuplicateKeyException), e -> {
+                    LOG.warn(String.format("Could not claim the idempotency key %s, running the request anyway", key), e);
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Void> save(String key, IdempotentResponse response) {
+        if (!shared) {
+            return Mono.empty();
+        }
+        Update update = new Update().set("expiresAt", expiry(ttl));
+        response.toDocument().forEach(update::set);
+        return mongoTemplate.upsert(new Query(Criteria.where("_id").is(key)), update, COLLECTION)
+                .then()
+                .onErrorResume(e -> {
+                    LOG.warn(String.format("Could not save the response of the idempotency key %s", key), e);
+                    return Mono.empty();
+                });
+    }
+
+    private void release(String key) {
+        if (!shared) {
+            return;
+        }
+        mongoTemplate.remove(new Query(Criteria.where("_id").is(key).and("status").exists(false)), COLLECTION)
+                .subscribe(null, e -> LOG.warn(String.format("Could not release the idempotency key %s", key), e));
+    }
+
+    private static Date expiry(Duration timeout) {
+        return new Date(System.currentTimeMillis() + timeout.toMillis());
+    }
+
+    /**
+     * Keeps the response in memory instead of writing it, the caller gets it once recorded.
+     */
+    private static final class Recorder extends ServerHttpResponseDecorator {
+
+        private final HttpHeaders headers = new HttpHeaders();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private Integer status;
+        private volatile boolean committed;
+
+        Recorder(ServerHttpResponse delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public boolean setStatusCode(HttpStatus status) {
+            return setRawStatusCode(status == null ? null : status.value());
+        }
+
+        @Override
+        public boolean setRawStatusCode(Integer status) {
+            if (committed) {
+                return false;
+            }
+            this.status = status;
+            return true;
+        }
+
+        @Override
+        public HttpStatus getStatusCode() {
+            return status == null ? null : HttpStatus.resolve(status);
+        }
+
+        @Override
+        public Integer getRawStatusCode() {
+            return status;
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return committed;
+        }
+
+        @Override
+        public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+            committed = true;
+            return Flux.from(body).doOnNext(this::capture).then();
+        }
+
+        @Override
+        public Mono<Void> writeAndFlushWith(Publisher<? extends Publisher<? extends DataBuffer>> body) {
+            return writeWith(Flux.from(body).concatMap(Flux::from));
+        }
+
+        @Override
+        public Mono<Void> setComplete() {
+            committed = true;
+            return Mono.empty();
+        }
+
+        private synchronized void capture(DataBuffer buffer) {
+            try {
+                ByteBuffer bytes = buffer.asByteBuffer();
+                byte[] copy = new byte[bytes.remaining()];
+                bytes.get(copy);
+                body.write(copy, 0, copy.length);
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+        }
+
+        synchronized IdempotentResponse response() {
+            HttpHeaders recorded = new HttpHeaders();
+            headers.forEach((name, values) -> {
+                if (UNRECORDED_HEADERS.stream().noneMatch(name::equalsIgnoreCase)) {
+                    recorded.put(name, values);
+                }
+            });
+            return new IdempotentResponse(status == null ? HttpStatus.OK.value() : status, recorded, body.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.pragma.webflux.api.controller;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response recorded for an {@code Idempotency-Key}, replayed to the retries of the request.
+ */
+final class IdempotentResponse {
+
+    private static final IdempotentResponse IN_PROGRESS = inProgress();
+
+    private final int status;
+    private final HttpHeaders headers;
+    private final byte[] body;
+    private final boolean replayed;
+
+    IdempotentResponse(int status, HttpHeaders headers, byte[] body) {
+        this(status, headers, body, false);
+    }
+
+    private IdempotentResponse(int status, HttpHeaders headers, byte[] body, boolean replayed) {
+        this.status = status;
+        this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+        this.body = body;
+        this.replayed = replayed;
+    }
+
+    private static IdempotentResponse inProgress() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "1");
+        return new IdempotentResponse(HttpStatus.CONFLICT.value(), headers, new byte[0]);
+    }
+
+    /**
+     * Answer to a key claimed by another instance whose request has not completed yet.
+     */
+    static IdempotentResponse conflict() {
+        return IN_PROGRESS;
+    }
+
+    /**
+     * The same response, marked with {@value IdempotencyFilter#REPLAYED} unless it is a conflict.
+     */
+    IdempotentResponse asReplay() {
+        return replayed || isInProgress() ? this : new IdempotentResponse(status, headers, body, true);
+    }
+
+    boolean isInProgress() {
+        return this == IN_PROGRESS;
+    }
+
+    int status() {
+        return status;
+    }
+
+    int size() {
+        return body.length;
+    }
+
+    Mono<Void> writeTo(ServerHttpResponse response) {
+        response.setRawStatusCode(status);
+        response.getHeaders().putAll(headers);
+        if (replayed) {
+            response.getHeaders().set(IdempotencyFilter.REPLAYED, "true");
+        }
+        response.getHeaders().setContentLength(body.length);
+        if (body.length == 0) {
+            return response.setComplete();
+        }
+        return response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(body)));
+    }
+
+    Document toDocument() {
+        Document headers = new Document();
+        this.headers.forEach((name, values) -> headers.append(name, new ArrayList<>(values)));
+        return new Document("status", status)
+                .append("headers", headers)
+                .append("body", new Binary(body));
+    }
+
+    /**
+     * @return null for a claim whose response has not been saved yet
+     */
+    @SuppressWarnings("unchecked")
+    static IdempotentResponse fromDocument(Document document) {
+        Integer status = document.getInteger("status");
+        if (status == null) {
+            return null;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        Document saved = document.get("headers", Document.class);
+        if (saved != null) {
+            for (Map.Entry<String, Object> header : saved.entrySet()) {
+                headers.put(header.getKey(), new ArrayList<>((List<String>) header.getValue()));
+            }
+        }
+        Object body = document.get("body");
+        byte[] bytes = body instanceof Binary ? ((Binary) body).getData() : body instanceof byte[] ? (byte[]) body : new byte[0];
+        return new IdempotentResponse(status, headers, bytes, true);
+    }
+}
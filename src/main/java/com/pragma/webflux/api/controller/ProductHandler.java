@@ -1,27 +1,58 @@
 package com.pragma.webflux.api.controller;
 
 import com.pragma.webflux.api.model.Category;
-import com.pragma.webflux.api.model.Image;
 import com.pragma.webflux.api.model.Product;
+import com.pragma.webflux.api.model.ProductBulkDelete;
+import com.pragma.webflux.api.model.ProductBulkResult;
+import com.pragma.webflux.api.service.CategoryRegistry;
 import com.pragma.webflux.api.service.IProductService;
+import com.pragma.webflux.api.service.ImageRenditionService;
+import com.pragma.webflux.api.service.ImageStore;
+import com.pragma.webflux.api.service.ProductFields;
+import com.pragma.webflux.api.service.ProductFilter;
+import com.pragma.webflux.api.service.ProductSearchIndex;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.codec.multipart.DefaultPartHttpMessageReader;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.http.codec.multipart.FormFieldPart;
+import org.springframework.http.codec.multipart.Part;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.Errors;
 import org.springframework.validation.Validator;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
 
-import java.io.File;
+import javax.annotation.PostConstruct;
 import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.UUID;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import static org.springframework.web.reactive.function.BodyInserters.fromValue;
 
@@ -31,47 +62,196 @@ public class ProductHandler {
     @Autowired
     private IProductService productService;
 
-    @Value("${images.upload.path}")
-    private String imagesPath;
+    @Value("${api.stream.batch-size}")
+    private int streamBatchSize;
+
+    @Value("${api.bulk.batch-size}")
+    private int bulkBatchSize;
+
+    @Value("${images.cache.max-age}")
+    private Duration imagesMaxAge;
 
     @Autowired
     private Validator validator;
 
-    public Mono<ServerResponse> list() {
-        return ServerResponse
-                .ok()
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(productService.findAll(), Product.class);
+    @Autowired
+    private ImageStore imageStore;
+
+    @Autowired
+    private ImageRenditionService imageRenditions;
+
+    @Value("${images.upload.max-in-memory-size}")
+    private DataSize maxInMemorySize;
+
+    @Value("${images.upload.max-file-size}")
+    private DataSize maxFileSize;
+
+    @Value("${images.upload.max-parts}")
+    private int maxParts;
+
+    @Autowired
+    private ProductSearchIndex searchIndex;
+
+    @Autowired
+    private CategoryRegistry categories;
+
+    @Value("${api.search.default-limit}")
+    private int searchDefaultLimit;
+
+    @Value("${api.search.max-limit}")
+    private int searchMaxLimit;
+
+    static final String UNKNOWN_CATEGORY = "Field: 'category.id', unknown category";
+
+    private static final ResolvableType PART_TYPE = ResolvableType.forClass(Part.class);
+
+    private DefaultPartHttpMessageReader multipartReader;
+
+    /**
+     * Upload routes read parts in streaming mode: form fields are kept in memory up to
+     * {@code max-in-memory-size}, file contents are never buffered nor spooled to temporary files.
+     */
+    @PostConstruct
+    void initMultipartReader() {
+        multipartReader = new DefaultPartHttpMessageReader();
+        multipartReader.setStreaming(true);
+        multipartReader.setMaxInMemorySize((int) maxInMemorySize.toBytes());
+        multipartReader.setMaxParts(maxParts);
     }
 
-    public Mono<ServerResponse> getProduct(ServerRequest request) {
-        return productService
-                .findById(request.pathVariable("id"))
-                .flatMap(p ->
+    public Mono<ServerResponse> list(ServerRequest request) {
+        return filter(request)
+                .zipWith(fields(request))
+                .flatMap(params ->
                         ServerResponse
                                 .ok()
                                 .contentType(MediaType.APPLICATION_JSON)
-                                .body(fromValue(p)))
-                .switchIfEmpty(
+                                .body(expand(request, productService.findAll(params.getT1(), params.getT2())), Product.class))
+                .onErrorResume(IllegalArgumentException.class, e ->
                         ServerResponse
-                                .notFound()
-                                .build());
+                                .badRequest()
+                                .body(fromValue(e.getMessage())));
+    }
+
+    /**
+     * Streams every product as soon as it is read, the client demand bounds the Mongo cursor batches.
+     */
+    public Mono<ServerResponse> listStream(ServerRequest request, MediaType mediaType) {
+        return filter(request)
+                .zipWith(fields(request))
+                .flatMap(params ->
+                        ServerResponse
+                                .ok()
+                                .contentType(mediaType)
+                                .body(expand(request, productService.findAll(params.getT1(), params.getT2())
+                                        .limitRate(streamBatchSize)), Product.class))
+                .onErrorResume(IllegalArgumentException.class, e ->
+                        ServerResponse
+                                .badRequest()
+                                .body(fromValue(e.getMessage())));
+    }
+
+    public Mono<ServerResponse> listPage(ServerRequest request) {
+        return Mono.zip(
+                        Mono.fromCallable(() -> Integer.parseInt(request.queryParam("limit").orElse(""))),
+                        filter(request),
+                        fields(request))
+                .flatMap(params -> productService.findPage(
+                        request.queryParam("after").orElse(null),
+                        params.getT1(),
+                        params.getT2(),
+                        params.getT3()))
+                .flatMap(page -> expand(request, Flux.fromIterable(page.getContent())).then(Mono.just(page)))
+                .flatMap(page ->
+                        ServerResponse
+                                .ok()
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .body(fromValue(page)))
+                .onErrorResume(IllegalArgumentException.class, e ->
+                        ServerResponse
+                                .badRequest()
+                                .body(fromValue(e.getMessage())));
+    }
+
+    /**
+     * Typeahead search on product and category names, every word of {@code q} matches as a prefix.
+     * Matching ids come from the in-memory index, the products themselves from the cache.
+     */
+    public Mono<ServerResponse> search(ServerRequest request) {
+        String query = request.queryParam("q").orElse("");
+        if (query.trim().isEmpty()) {
+            return ServerResponse
+                    .badRequest()
+                    .body(fromValue("q is required"));
+        }
+        return Mono.fromCallable(() -> request.queryParam("limit").map(Integer::parseInt).orElse(searchDefaultLimit))
+                .map(limit -> searchIndex.search(query, Math.min(limit, searchMaxLimit)))
+                .flatMap(ids ->
+                        ServerResponse
+                                .ok()
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .body(Flux.fromIterable(ids).flatMapSequential(productService::findById), Product.class))
+                .onErrorResume(NumberFormatException.class, e ->
+                        ServerResponse
+                                .badRequest()
+                                .body(fromValue(e.getMessage())));
+    }
+
+    /**
+     * Answers {@code If-None-Match} and {@code If-Modified-Since} with 304 from the product
+     * version and modification time alone, the full document is only read to be sent.
+     * The validators of a 200 come from the document sent, not from the first read.
+     * Expanded images change without their product, so those responses carry no validators.
+     */
+    public Mono<ServerResponse> getProduct(ServerRequest request) {
+        String id = request.pathVariable("id");
+        return fields(request)
+                .flatMap(fields -> (expandsImages(request)
+                        ? getProduct(request, id, fields, false)
+                        : productService
+                        .findById(id, ProductValidators.FIELDS)
+                        .flatMap(current -> {
+                            ProductValidators validators = ProductValidators.of(current, fields);
+                            return validators.notModified(request.exchange())
+                                    ? ServerResponse
+                                    .status(HttpStatus.NOT_MODIFIED)
+                                    .headers(validators::addTo)
+                                    .build()
+                                    : getProduct(request, id, fields, true);
+                        }))
+                        .switchIfEmpty(
+                                ServerResponse
+                                        .notFound()
+                                        .build()))
+                .onErrorResume(IllegalArgumentException.class, e ->
+                        ServerResponse
+                                .badRequest()
+                                .body(fromValue(e.getMessage())));
+    }
+
+    private Mono<ServerResponse> getProduct(ServerRequest request, String id, Set<String> fields, boolean validated) {
+        return productService
+                .findByIdWithNameUppercase(id, validated ? ProductValidators.including(fields) : fields)
+                .flatMap(p -> expand(request, Flux.just(p)).next())
+                .flatMap(p -> {
+                    ServerResponse.BodyBuilder ok = ServerResponse.ok();
+                    if (validated) {
+                        ok.headers(ProductValidators.of(p, fields)::addTo);
+                        ProductValidators.retain(p, fields);
+                    }
+                    return ok
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .body(fromValue(p));
+                });
     }
 
     public Mono<ServerResponse> createProduct(ServerRequest request) {
         return request.bodyToMono(Product.class)
-                .flatMap(p -> {
-                    Errors errors = new BeanPropertyBindingResult(p, Product.class.getName());
-                    validator.validate(p, errors);
-                    if (errors.hasErrors()) {
-                        return Flux
-                                .fromIterable(errors.getFieldErrors())
-                                .map(fieldError ->
-                                        "Field: '" + fieldError.getField() + "', " + fieldError.getDefaultMessage())
-                                .collectList()
-                                .flatMap(list -> ServerResponse
-                                        .badRequest()
-                                        .body(fromValue(list)));
+                .flatMap(p -> validate(p).flatMap(errors -> {
+                    if (!errors.isEmpty()) {
+                        return ServerResponse
+                                .badRequest()
+                                .body(fromValue(errors));
                     } else {
                         if (p.getCreateAt() == null) {
                             p.setCreateAt(new Date());
@@ -82,126 +262,322 @@ public class ProductHandler {
                                         .contentType(MediaType.APPLICATION_JSON)
                                         .body(fromValue(pdb)));
                     }
+                }));
+    }
+
+    /**
+     * Accepts a JSON array or NDJSON stream of products and inserts the valid ones in
+     * batches of {@code api.bulk.batch-size}, answering one NDJSON result line per item.
+     */
+    public Mono<ServerResponse> createProducts(ServerRequest request) {
+        Flux<ProductBulkResult> results = request.bodyToFlux(Product.class)
+                .index()
+                .buffer(bulkBatchSize)
+                .concatMap(this::insertBatch);
+        return ServerResponse
+                .ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(results, ProductBulkResult.class);
+    }
+
+    private Flux<ProductBulkResult> insertBatch(List<Tuple2<Long, Product>> batch) {
+        List<ProductBulkResult> invalid = new ArrayList<>();
+        List<Tuple2<Long, Product>> valid = new ArrayList<>();
+        return Flux.fromIterable(batch)
+                .concatMap(item -> validate(item.getT2())
+                        .doOnNext(errors -> {
+                            if (errors.isEmpty()) {
+                                if (item.getT2().getCreateAt() == null) {
+                                    item.getT2().setCreateAt(new Date());
+                                }
+                                valid.add(item);
+                            } else {
+                                invalid.add(ProductBulkResult.failed(item.getT1(), errors));
+                            }
+                        }))
+                .thenMany(Flux.defer(() -> Flux.fromIterable(invalid).concatWith(productService
+                        .insertAll(valid.stream().map(Tuple2::getT2).collect(Collectors.toList()))
+                        .map(result -> {
+                            result.setIndex(valid.get((int) result.getIndex()).getT1());
+                            return result;
+                        }))));
+    }
+
+    /**
+     * Also embeds the registered copy of the product category, see {@link CategoryRegistry#embed(Product)}.
+     */
+    Mono<List<String>> validate(Product p) {
+        return validate(p, false);
+    }
+
+    private Mono<List<String>> validate(Product p, boolean partial) {
+        List<String> messages = fieldErrors(validator, p, partial);
+        return categories.embed(p)
+                .map(known -> {
+                    if (!known) {
+                        messages.add(UNKNOWN_CATEGORY);
+                    }
+                    return messages;
                 });
     }
 
-    public Mono<ServerResponse> editProduct(ServerRequest request) {
-        return productService
-                .findById(request.pathVariable("id"))
-                .flatMap(p ->
-                        request.bodyToMono(Product.class)
-                                .flatMap(product -> {
-                                    p.setName(product.getName());
-                                    p.setPrice(product.getPrice());
-                                    p.setCategory(product.getCategory());
-                                    return productService.save(p);
-                                })
-                )
-                .flatMap(p ->
-                        ServerResponse
-                                .ok()
-                                .contentType(MediaType.APPLICATION_JSON)
-                                .body(fromValue(p)))
+    /**
+     * Bean validation errors of the product. A partial product, the body of a PATCH, only
+     * has the fields it carries checked, the others are left as stored.
+     */
+    static List<String> fieldErrors(Validator validator, Product p, boolean partial) {
+        Errors errors = new BeanPropertyBindingResult(p, Product.class.getName());
+        validator.validate(p, errors);
+        BeanWrapper carried = new BeanWrapperImpl(p);
+        return errors.getFieldErrors()
+                .stream()
+                .filter(fieldError -> !partial
+                        || carried.getPropertyValue(fieldError.getField().split("[.\\[]")[0]) != null)
+                .map(fieldError ->
+                        "Field: '" + fieldError.getField() + "', " + fieldError.getDefaultMessage())
+                .collect(Collectors.toList());
+    }
+
+    public Mono<ServerResponse> editProduct2(ServerRequest request) {
+        return updateProduct(request, false);
+    }
+
+    public Mono<ServerResponse> patchProduct(ServerRequest request) {
+        return updateProduct(request, true);
+    }
+
+    /**
+     * A PUT replaces name, price and category, so its body is validated like a created product.
+     * A PATCH only sets the fields it carries, so only those are validated.
+     */
+    private Mono<ServerResponse> updateProduct(ServerRequest request, boolean partial) {
+        return request.bodyToMono(Product.class)
+                .flatMap(req -> validate(req, partial).flatMap(errors -> errors.isEmpty()
+                        ? productService.update(request.pathVariable("id"), req, partial)
+                        .flatMap(p ->
+                                ServerResponse
+                                        .ok()
+                                        .contentType(MediaType.APPLICATION_JSON)
+                                        .body(fromValue(p)))
+                        : ServerResponse
+                        .badRequest()
+                        .body(fromValue(errors))))
                 .switchIfEmpty(
                         ServerResponse
                                 .notFound()
+                                .build())
+                .onErrorResume(OptimisticLockingFailureException.class, e ->
+                        ServerResponse
+                                .status(HttpStatus.CONFLICT)
                                 .build());
     }
 
-    public Mono<ServerResponse> editProduct2(ServerRequest request) {
+    public Mono<ServerResponse> deleteProduct(ServerRequest request) {
         return productService
-                .findById(request.pathVariable("id"))
-                .zipWith(request.bodyToMono(Product.class), (db, req) ->
-                {
-                    db.setName(req.getName());
-                    db.setPrice(req.getPrice());
-                    db.setCategory(req.getCategory());
-                    return db;
-                })
-                .flatMap(p ->
+                .deleteById(request.pathVariable("id"))
+                .flatMap(deleted -> deleted
+                        ? ServerResponse
+                        .noContent()
+                        .build()
+                        : ServerResponse
+                        .notFound()
+                        .build());
+    }
+
+    public Mono<ServerResponse> deleteProducts(ServerRequest request) {
+        return request.bodyToMono(ProductBulkDelete.class)
+                .flatMap(filter -> productService.deleteAll(filter.getIds(), filter.getCategoryId()))
+                .flatMap(deleted ->
                         ServerResponse
                                 .ok()
                                 .contentType(MediaType.APPLICATION_JSON)
-                                .body(productService.save(p), Product.class))
-                .switchIfEmpty(
+                                .body(fromValue(Collections.singletonMap("deleted", deleted))))
+                .onErrorResume(IllegalArgumentException.class, e ->
                         ServerResponse
-                                .notFound()
-                                .build());
+                                .badRequest()
+                                .body(fromValue(e.getMessage())));
     }
 
-    public Mono<ServerResponse> deleteProduct(ServerRequest request) {
+    /**
+     * Reads the multipart body as a stream of parts and pipes the file straight into the image store.
+     */
+    public Mono<ServerResponse> uploadImage(ServerRequest request) {
         return productService
                 .findById(request.pathVariable("id"))
-                .flatMap(p -> productService.delete(p)
-                        .then(ServerResponse
-                                .noContent()
-                                .build()))
+                .flatMap(p -> parts(request)
+                        .concatMap(part -> isFile(part)
+                                ? productService.addImage(p, limit(part.content(), maxFileSize), ((FilePart) part).filename())
+                                .doOnNext(imageRenditions::submit)
+                                : discard(part))
+                        .collectList()
+                        .flatMap(saved -> saved.isEmpty()
+                                ? ServerResponse
+                                .badRequest()
+                                .body(fromValue("Part 'file' is required"))
+                                : ServerResponse
+                                .created(URI.create("images"))
+                                .body(fromValue(saved.get(saved.size() - 1)))))
                 .switchIfEmpty(
                         ServerResponse
                                 .notFound()
-                                .build());
+                                .build())
+                .onErrorResume(DataBufferLimitException.class, e ->
+                        ServerResponse
+                                .status(HttpStatus.PAYLOAD_TOO_LARGE)
+                                .body(fromValue(e.getMessage())))
+                .onErrorResume(DecodingException.class, e ->
+                        ServerResponse
+                                .badRequest()
+                                .body(fromValue(e.getMessage())));
     }
 
-    public Mono<ServerResponse> uploadImage(ServerRequest request) {
-
-        return request.multipartData()
-                .map(m -> m.toSingleValueMap().get("file"))
-                .cast(FilePart.class)
-                .flatMap(file ->
-                        productService
-                                .findById(request.pathVariable("id"))
-                                .flatMap(p -> {
-                                    String filename = UUID.randomUUID() + "-" + file.filename()
-                                            .replace(" ", "")
-                                            .replace(":", "")
-                                            .replace("\\", "");
-                                    if (!file.filename().isEmpty()) {
-                                        Image image = new Image(filename);
-                                        p.getImages().add(image);
-                                    }
-                                    return file.transferTo(new File(imagesPath + filename))
-                                            .then(productService.save(p));
-                                }))
-                .flatMap(p ->
-                        ServerResponse
-                                .created(URI.create("images"))
-                                .body(fromValue(p)))
+    /**
+     * Serves an image of the product. Images are immutable, the entity tag comes from their content.
+     * Range requests are answered with 206 and the file is written with zero-copy transfers.
+     */
+    public Mono<ServerResponse> getImage(ServerRequest request) {
+        String imageId = request.pathVariable("imageId");
+        return productService
+                .findById(request.pathVariable("id"))
+                .filterWhen(p -> p.getImageIds().contains(imageId)
+                        ? Mono.just(true)
+                        : productService.findImagesByIds(p.getImageIds())
+                                .any(image -> image.getRenditions().containsValue(imageId)))
+                .flatMap(p -> imageStore.load(imageId))
+                .flatMap(resource -> {
+                    String etag = imageStore.etag(imageId);
+                    return request.checkNotModified(etag)
+                            .switchIfEmpty(Mono.defer(() ->
+                                    ServerResponse
+                                            .ok()
+                                            .eTag(etag)
+                                            .cacheControl(CacheControl.maxAge(imagesMaxAge).cachePublic())
+                                            .contentType(MediaTypeFactory.getMediaType(resource)
+                                                    .orElse(MediaType.APPLICATION_OCTET_STREAM))
+                                            .body(BodyInserters.fromResource(resource))));
+                })
                 .switchIfEmpty(
                         ServerResponse
                                 .notFound()
                                 .build());
     }
 
+    /**
+     * Form fields are collected as they arrive and the file is stored while it streams in,
+     * whatever the order of the parts. The product is validated and saved once the body is read.
+     */
     public Mono<ServerResponse> createWithImage(ServerRequest request) {
-        Mono<Product> product = request.multipartData()
-                .map(multipart -> {
-                    String name = ((FormFieldPart) multipart.toSingleValueMap().get("name")).value();
-                    String price = ((FormFieldPart) multipart.toSingleValueMap().get("price")).value();
-                    String categoryId = ((FormFieldPart) multipart.toSingleValueMap().get("category.id")).value();
-                    String categoryName = ((FormFieldPart) multipart.toSingleValueMap().get("category.name")).value();
-                    Category category = new Category(categoryName);
-                    category.setId(categoryId);
-                    return new Product(name, Double.parseDouble(price), category);
-                });
-        return request.multipartData()
-                .map(m -> m.toSingleValueMap().get("file"))
-                .cast(FilePart.class)
-                .flatMap(file -> product
-                        .flatMap(p -> {
-                            String filename = UUID.randomUUID() + "-" + file.filename()
-                                    .replace(" ", "")
-                                    .replace(":", "")
-                                    .replace("\\", "");
-                            if (!file.filename().isEmpty()) {
-                                Image image = new Image(filename);
-                                p.getImages().add(image);
-                            }
-                            return file.transferTo(new File(imagesPath + filename))
-                                    .then(productService.save(p));
-                        }))
-                .flatMap(p ->
+        Map<String, String> fields = new HashMap<>();
+        return parts(request)
+                .concatMap(part -> {
+                    if (part instanceof FormFieldPart) {
+                        fields.put(part.name(), ((FormFieldPart) part).value());
+                        return Mono.<String>empty();
+                    }
+                    if (isFile(part) && !((FilePart) part).filename().isEmpty()) {
+                        return imageStore.store(limit(part.content(), maxFileSize), ((FilePart) part).filename())
+                                .flatMap(key -> productService.registerImage(key).thenReturn(key));
+                    }
+                    return discard(part);
+                })
+                .collectList()
+                .flatMap(keys -> {
+                    Category category = new Category(fields.get("category.name"));
+                    category.setId(fields.get("category.id"));
+                    Product p = new Product(fields.get("name"), parsePrice(fields.get("price")), category);
+                    return validate(p).flatMap(errors -> {
+                        if (!errors.isEmpty()) {
+                            return ServerResponse
+                                    .badRequest()
+                                    .body(fromValue(errors));
+                        }
+                        p.setCreateAt(new Date());
+                        p.getImageIds().addAll(keys);
+                        return productService.save(p)
+                                .doOnNext(imageRenditions::submit)
+                                .flatMap(pdb ->
+                                        ServerResponse
+                                                .created(URI.create("images"))
+                                                .body(fromValue(pdb)));
+                    });
+                })
+                .onErrorResume(DataBufferLimitException.class, e ->
                         ServerResponse
-                                .created(URI.create("images"))
-                                .body(fromValue(p)));
+                                .status(HttpStatus.PAYLOAD_TOO_LARGE)
+                                .body(fromValue(e.getMessage())))
+                .onErrorResume(DecodingException.class, e ->
+                        ServerResponse
+                                .badRequest()
+                                .body(fromValue(e.getMessage())));
+    }
+
+    /**
+     * {@code category}, {@code minPrice}, {@code maxPrice}, {@code createdFrom}, {@code createdTo}
+     * and {@code sort}, see {@link ProductFilter}.
+     */
+    private static Mono<ProductFilter> filter(ServerRequest request) {
+        return Mono.fromCallable(() -> ProductFilter.of(
+                request.queryParam("category").orElse(null),
+                request.queryParam("minPrice").orElse(null),
+                request.queryParam("maxPrice").orElse(null),
+                request.queryParam("createdFrom").orElse(null),
+                request.queryParam("createdTo").orElse(null),
+                request.queryParam("sort").orElse(null)));
+    }
+
+    private static Mono<Set<String>> fields(ServerRequest request) {
+        return Mono.fromCallable(() -> ProductFields.parse(request.queryParam("fields").orElse(null)));
+    }
+
+    /**
+     * Products reference their images by id, {@code expand=images} loads the image documents inline.
+     */
+    private Flux<Product> expand(ServerRequest request, Flux<Product> products) {
+        return expandsImages(request)
+                ? productService.expandImages(products)
+                : products;
+    }
+
+    private static boolean expandsImages(ServerRequest request) {
+        return request.queryParam("expand").filter(Product.EXPAND_IMAGES::equals).isPresent();
+    }
+
+    private Flux<Part> parts(ServerRequest request) {
+        return multipartReader.read(PART_TYPE, request.exchange().getRequest(), Collections.emptyMap());
+    }
+
+    private static boolean isFile(Part part) {
+        return part instanceof FilePart && "file".equals(part.name());
+    }
+
+    /**
+     * Streamed parts have to be consumed in order, unexpected ones are drained and released.
+     */
+    private static <T> Mono<T> discard(Part part) {
+        return part.content()
+                .doOnNext(DataBufferUtils::release)
+                .then(Mono.empty());
+    }
+
+    /**
+     * Fails the upload with a {@link DataBufferLimitException} once it passes {@code maxFileSize},
+     * shared with the annotated upload endpoint.
+     */
+    static Flux<DataBuffer> limit(Flux<DataBuffer> content, DataSize maxFileSize) {
+        AtomicLong size = new AtomicLong();
+        return content.doOnNext(buffer -> {
+            if (size.addAndGet(buffer.readableByteCount()) > maxFileSize.toBytes()) {
+                DataBufferUtils.release(buffer);
+                throw new DataBufferLimitException("File exceeds the limit of " + maxFileSize.toBytes() + " bytes");
+            }
+        });
+    }
+
+    private static Double parsePrice(String price) {
+        try {
+            return price == null ? null : Double.valueOf(price);
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 }
@@ -1,58 +1,173 @@
 package com.pragma.webflux.api.controller;
 
-import com.pragma.webflux.api.model.Image;
 import com.pragma.webflux.api.model.Product;
+import com.pragma.webflux.api.model.ProductPage;
+import com.pragma.webflux.api.service.CategoryRegistry;
 import com.pragma.webflux.api.service.IProductService;
+import com.pragma.webflux.api.service.ImageRenditionService;
+import com.pragma.webflux.api.service.ProductFields;
+import com.pragma.webflux.api.service.ProductFilter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.Validator;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.ServerWebInputException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import javax.validation.Valid;
-import java.io.File;
 import java.net.URI;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/api/products")
 public class ProductRestController {
 
-    @Value("${images.upload.path}")
-    private String imagesPath;
+    @Value("${api.stream.batch-size}")
+    private int streamBatchSize;
+
+    @Value("${images.upload.max-file-size}")
+    private DataSize maxFileSize;
 
     @Autowired
     private IProductService productService;
 
+    @Autowired
+    private ImageRenditionService imageRenditions;
+
+    @Autowired
+    private CategoryRegistry categories;
+
+    @Autowired
+    private Validator validator;
+
     @GetMapping
-    public Mono<ResponseEntity<Flux<Product>>> listProducts() {
-        return Mono.just(
-                ResponseEntity
+    public Mono<ResponseEntity<Flux<Product>>> listProducts(
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) String minPrice,
+            @RequestParam(required = false) String maxPrice,
+            @RequestParam(required = false) String createdFrom,
+            @RequestParam(required = false) String createdTo,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false) String expand
+    ) {
+        return Mono.fromCallable(() -> productService.findAll(
+                        ProductFilter.of(category, minPrice, maxPrice, createdFrom, createdTo, sort),
+                        ProductFields.parse(fields)))
+                .map(products -> ResponseEntity
                         .ok()
                         .contentType(MediaType.APPLICATION_JSON)
-                        .body(productService.findAll())
-        );
+                        .body(expand(expand, products)))
+                .onErrorResume(IllegalArgumentException.class, e ->
+                        Mono.just(ResponseEntity
+                                .badRequest().build()));
     }
 
-    @GetMapping("/{id}")
-    public Mono<ResponseEntity<Product>> getProduct(
-            @PathVariable String id
+    @GetMapping(produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Flux<Product> streamProducts(
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) String minPrice,
+            @RequestParam(required = false) String maxPrice,
+            @RequestParam(required = false) String createdFrom,
+            @RequestParam(required = false) String createdTo,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false) String expand
     ) {
-        return productService.findById(id)
-                .map(p -> ResponseEntity
+        return Mono.fromCallable(() -> productService.findAll(
+                        ProductFilter.of(category, minPrice, maxPrice, createdFrom, createdTo, sort),
+                        ProductFields.parse(fields)))
+                .onErrorMap(IllegalArgumentException.class, e -> new ServerWebInputException(e.getMessage()))
+                .flatMapMany(products -> expand(expand, products.limitRate(streamBatchSize)));
+    }
+
+    @GetMapping(params = "limit")
+    public Mono<ResponseEntity<ProductPage>> listProductsPage(
+            @RequestParam int limit,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) String minPrice,
+            @RequestParam(required = false) String maxPrice,
+            @RequestParam(required = false) String createdFrom,
+            @RequestParam(required = false) String createdTo,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false) String expand
+    ) {
+        return Mono.fromCallable(() -> ProductFilter.of(category, minPrice, maxPrice, createdFrom, createdTo, sort))
+                .zipWith(Mono.fromCallable(() -> ProductFields.parse(fields)))
+                .flatMap(params -> productService.findPage(after, limit, params.getT1(), params.getT2()))
+                .flatMap(page -> expand(expand, Flux.fromIterable(page.getContent())).then(Mono.just(page)))
+                .map(page -> ResponseEntity
                         .ok()
                         .contentType(MediaType.APPLICATION_JSON)
-                        .body(p))
+                        .body(page))
+                .onErrorResume(IllegalArgumentException.class, e ->
+                        Mono.just(ResponseEntity
+                                .badRequest().build()));
+    }
+
+    /**
+     * Answers {@code If-None-Match} and {@code If-Modified-Since} with 304 from the product
+     * version and modification time alone, and takes the validators of a 200 from the document
+     * sent, as {@link ProductHandler} does.
+     */
+    @GetMapping("/{id}")
+    public Mono<ResponseEntity<Product>> getProduct(
+            @PathVariable String id,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false) String expand,
+            ServerWebExchange exchange
+    ) {
+        return Mono.fromCallable(() -> ProductFields.parse(fields))
+                .flatMap(selected -> Product.EXPAND_IMAGES.equals(expand)
+                        ? getProduct(id, selected, expand, false)
+                        : productService
+                        .findById(id, ProductValidators.FIELDS)
+                        .flatMap(current -> {
+                            ProductValidators validators = ProductValidators.of(current, selected);
+                            return validators.notModified(exchange)
+                                    ? Mono.just(ResponseEntity
+                                    .status(HttpStatus.NOT_MODIFIED)
+                                    .headers(validators::addTo)
+                                    .<Product>build())
+                                    : getProduct(id, selected, expand, true);
+                        }))
                 .defaultIfEmpty(ResponseEntity
-                        .notFound().build());
+                        .notFound().build())
+                .onErrorResume(IllegalArgumentException.class, e ->
+                        Mono.just(ResponseEntity
+                                .badRequest().build()));
+    }
+
+    private Mono<ResponseEntity<Product>> getProduct(String id, Set<String> fields, String expand, boolean validated) {
+        return productService.findByIdWithNameUppercase(id, validated ? ProductValidators.including(fields) : fields)
+                .flatMap(p -> expand(expand, Flux.just(p)).next())
+                .map(p -> {
+                    ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+                    if (validated) {
+                        ok.headers(ProductValidators.of(p, fields)::addTo);
+                        ProductValidators.retain(p, fields);
+                    }
+                    return ok
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .body(p);
+                });
     }
 
     @PostMapping
@@ -61,7 +176,13 @@ public class ProductRestController {
     ) {
         Map<String, Object> response = new HashMap<>();
         return monoProduct
-                .flatMap(product -> {
+                .flatMap(product -> categories.embed(product).flatMap(known -> {
+                    if (!known) {
+                        response.put("errors", Collections.singletonList(ProductHandler.UNKNOWN_CATEGORY));
+                        return Mono.just(ResponseEntity
+                                .badRequest()
+                                .body(response));
+                    }
                     if (product.getCreateAt() == null) {
                         product.setCreateAt(new Date());
                     }
@@ -73,7 +194,7 @@ public class ProductRestController {
                                         .contentType(MediaType.APPLICATION_JSON)
                                         .body(response);
                             });
-                })
+                }))
                 .onErrorResume(t ->
                         Mono.just(t).cast(WebExchangeBindException.class)
                                 .flatMap(e -> Mono.just(e.getFieldErrors()))
@@ -94,32 +215,50 @@ public class ProductRestController {
 
     @PutMapping("/{id}")
     public Mono<ResponseEntity<Product>> editProduct(
+            @PathVariable String id,
+            @Valid @RequestBody Product product
+    ) {
+        return updateProduct(id, product, false);
+    }
+
+    @PatchMapping("/{id}")
+    public Mono<ResponseEntity<Product>> patchProduct(
             @PathVariable String id,
             @RequestBody Product product
     ) {
-        return productService.findById(id)
-                .flatMap(p -> {
-                    p.setName(product.getName());
-                    p.setPrice(product.getPrice());
-                    p.setCategory(product.getCategory());
-                    return productService.save(p);
-                })
-                .map(p -> ResponseEntity
-                        .ok()
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .body(p))
-                .defaultIfEmpty(ResponseEntity
-                        .notFound().build());
+        return updateProduct(id, product, true);
+    }
+
+    /**
+     * A PUT body is validated by {@code @Valid}, a PATCH body only on the fields it carries.
+     */
+    private Mono<ResponseEntity<Product>> updateProduct(String id, Product product, boolean partial) {
+        if (partial && !ProductHandler.fieldErrors(validator, product, true).isEmpty()) {
+            return Mono.just(ResponseEntity
+                    .badRequest().build());
+        }
+        return categories.embed(product)
+                .flatMap(known -> known
+                        ? productService.update(id, product, partial)
+                        .map(p -> ResponseEntity
+                                .ok()
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .body(p))
+                        .defaultIfEmpty(ResponseEntity
+                                .notFound().build())
+                        : Mono.just(ResponseEntity
+                        .badRequest().<Product>build()))
+                .onErrorResume(OptimisticLockingFailureException.class, e ->
+                        Mono.just(ResponseEntity
+                                .status(HttpStatus.CONFLICT).build()));
     }
 
     @DeleteMapping("/{id}")
     public Mono<ResponseEntity<Void>> deleteProduct(
             @PathVariable String id
     ) {
-        return productService.findById(id)
-                .flatMap(p -> productService.delete(p)
-                        .then(Mono.just(new ResponseEntity<Void>(HttpStatus.NO_CONTENT))))
-                .defaultIfEmpty(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+        return productService.deleteById(id)
+                .map(deleted -> new ResponseEntity<Void>(deleted ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND));
     }
 
     @PostMapping("/upload/{id}")
@@ -127,21 +266,17 @@ public class ProductRestController {
             @PathVariable String id,
             @RequestPart FilePart file
     ) {
-        String filename = UUID.randomUUID() + "-" + file.filename()
-                .replace(" ", "")
-                .replace(":", "")
-                .replace("\\", "");
         return productService.findById(id)
-                .flatMap(p -> {
-                    if (!file.filename().isEmpty()) {
-                        Image image = new Image(filename);
-                        p.getImages().add(image);
-                    }
-                    return file.transferTo(new File(imagesPath + filename))
-                            .then(productService.save(p));
-                })
+                .flatMap(p -> productService.addImage(p, ProductHandler.limit(file.content(), maxFileSize), file.filename()))
+                .doOnNext(imageRenditions::submit)
                 .map(ResponseEntity::ok)
                 .defaultIfEmpty(ResponseEntity
-                        .notFound().build());
+                        .notFound().build())
+                .onErrorMap(DataBufferLimitException.class, e ->
+                        new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, e.getMessage()));
+    }
+
+    private Flux<Product> expand(String expand, Flux<Product> products) {
+        return Product.EXPAND_IMAGES.equals(expand) ? productService.expandImages(products) : products;
     }
 }
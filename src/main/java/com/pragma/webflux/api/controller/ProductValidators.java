@@ -0,0 +1,98 @@
+package com.pragma.webflux.api.controller;
+
+import com.pragma.webflux.api.model.Product;
+import com.pragma.webflux.api.service.ProductFields;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Validators of a product representation for conditional GETs. The strong ETag is the product
+ * version, which every write increments, qualified by the selected fields since each fieldset
+ * is a representation of its own; Last-Modified is the time of the last write.
+ * Both only need the {@link #FIELDS} projection, so a 304 never reads the full document.
+ */
+final class ProductValidators {
+
+    static final Set<String> FIELDS = Collections.unmodifiableSet(new LinkedHashSet<>(
+            Arrays.asList(ProductFields.ID, ProductFields.VERSION, ProductFields.LAST_MODIFIED)));
+
+    private final String etag;
+    private final Instant lastModified;
+
+    private ProductValidators(String etag, Instant lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Products written before versioning or modification times carry no validators.
+     */
+    static ProductValidators of(Product product, Set<String> fields) {
+        String etag = product.getVersion() == null
+                ? null
+                : "\"" + product.getVersion() + (fields.isEmpty() ? "" : ";" + String.join(",", new TreeSet<>(fields))) + "\"";
+        Instant lastModified = product.getLastModified() == null
+                ? null
+                : product.getLastModified().toInstant().truncatedTo(ChronoUnit.SECONDS);
+        return new ProductValidators(etag, lastModified);
+    }
+
+    /**
+     * The selected fields plus the ones the validators are computed from, so that a 200 carries
+     * the validators of the very document it sends.
+     */
+    static Set<String> including(Set<String> fields) {
+        if (fields.isEmpty()) {
+            return fields;
+        }
+        Set<String> union = new LinkedHashSet<>(fields);
+        union.add(ProductFields.VERSION);
+        union.add(ProductFields.LAST_MODIFIED);
+        return union;
+    }
+
+    /**
+     * Clears the validator fields the client did not select once they have been read.
+     */
+    static Product retain(Product product, Set<String> fields) {
+        if (!fields.isEmpty() && !fields.contains(ProductFields.VERSION)) {
+            product.setVersion(null);
+        }
+        if (!fields.isEmpty() && !fields.contains(ProductFields.LAST_MODIFIED)) {
+            product.setLastModified(null);
+        }
+        return product;
+    }
+
+    String etag() {
+        return etag;
+    }
+
+    Instant lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Evaluates {@code If-None-Match} and {@code If-Modified-Since}, the former taking precedence.
+     */
+    boolean notModified(ServerWebExchange exchange) {
+        return exchange.checkNotModified(etag, lastModified == null ? Instant.MIN : lastModified);
+    }
+
+    void addTo(HttpHeaders headers) {
+        if (etag != null) {
+            headers.setETag(etag);
+        }
+        if (lastModified != null) {
+            headers.setLastModified(lastModified);
+        }
+    }
+}
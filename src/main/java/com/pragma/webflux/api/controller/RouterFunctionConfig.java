@@ -3,6 +3,8 @@ package com.pragma.webflux.api.controller;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.RequestPredicate;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
@@ -14,17 +16,44 @@ public class RouterFunctionConfig {
 
     @Value("${api.endpoint}")
     private String path;
+    @Value("${api.categories.endpoint}")
+    private String categoriesPath;
     private static final String PATH_VARIABLE="{id}";
 
     @Bean
     public RouterFunction<ServerResponse> routes(ProductHandler handler) {
-        return route(GET(path),serverRequest->handler.list())
+        return route(GET(path).and(queryParam("limit", limit -> true)), handler::listPage)
+                .andRoute(GET(path).and(acceptsExplicitly(MediaType.APPLICATION_NDJSON)),
+                        serverRequest -> handler.listStream(serverRequest, MediaType.APPLICATION_NDJSON))
+                .andRoute(GET(path).and(acceptsExplicitly(MediaType.TEXT_EVENT_STREAM)),
+                        serverRequest -> handler.listStream(serverRequest, MediaType.TEXT_EVENT_STREAM))
+                .andRoute(GET(path),handler::list)
+                .andRoute(GET(path + "search"), handler::search)
                 .andRoute(GET(path + PATH_VARIABLE), handler::getProduct)
                 .andRoute(POST(path), handler::createProduct)
+                .andRoute(POST(path + "bulk"), handler::createProducts)
+                .andRoute(POST(path + "bulk/delete"), handler::deleteProducts)
                 .andRoute(PUT(path + PATH_VARIABLE), handler::editProduct2)
+                .andRoute(PATCH(path + PATH_VARIABLE), handler::patchProduct)
                 .andRoute(DELETE(path + PATH_VARIABLE), handler::deleteProduct)
                 .andRoute(POST(path+ "upload/"+PATH_VARIABLE), handler::uploadImage)
+                .andRoute(GET(path + PATH_VARIABLE + "/images/{imageId}"), handler::getImage)
                 .andRoute(POST(path+"uploadWithImage"), handler::createWithImage)
                 ;
     }
+
+    @Bean
+    public RouterFunction<ServerResponse> categoryRoutes(CategoryHandler handler) {
+        return route(GET(categoriesPath), handler::list)
+                .andRoute(GET(categoriesPath + PATH_VARIABLE), handler::getCategory)
+                .andRoute(POST(categoriesPath), handler::createCategory)
+                .andRoute(PUT(categoriesPath + PATH_VARIABLE), handler::renameCategory);
+    }
+
+    /**
+     * Unlike {@code accept(..)}, a wildcard Accept header does not match, so such clients keep getting a JSON array.
+     */
+    private static RequestPredicate acceptsExplicitly(MediaType mediaType) {
+        return request -> request.headers().accept().stream().anyMatch(mediaType::equalsTypeAndSubtype);
+    }
 }
@@ -0,0 +1,76 @@
+package com.pragma.webflux.api.controller;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket per client, refilled at {@code rate} tokens per second up to {@code burst}.
+ * <p>
+ * Each bucket is a single {@link AtomicLong} holding the time at which it would be full again
+ * (the GCRA form of a token bucket), so admitting a request is one compare-and-set without
+ * locks. A bucket past that time is full, which is the same as having no bucket: when there
+ * are more than {@code maxClients} buckets the full ones are dropped, at most once a second.
+ */
+final class TokenBucketRateLimiter {
+
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final long interval;
+    private final long tolerance;
+    private final int maxClients;
+    private final LongSupplier nanoClock;
+
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    TokenBucketRateLimiter(double rate, int burst, int maxClients, LongSupplier nanoClock) {
+        if (rate <= 0 || burst < 1) {
+            throw new IllegalArgumentException("rate must be positive and burst at least 1");
+        }
+        this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        this.tolerance = interval * (burst - 1);
+        this.maxClients = maxClients;
+        this.nanoClock = nanoClock;
+        this.lastSweep.set(nanoClock.getAsLong());
+    }
+
+    /**
+     * Takes a token from the client's bucket.
+     *
+     * @return 0 when a token was taken, otherwise the nanoseconds until one is available
+     */
+    long tryAcquire(String client) {
+        long now = nanoClock.getAsLong();
+        AtomicLong full = buckets.get(client);
+        if (full == null) {
+            sweep(now);
+            full = buckets.computeIfAbsent(client, key -> new AtomicLong(now));
+        }
+        while (true) {
+            long current = full.get();
+            long start = Math.max(current, now);
+            long wait = start - now - tolerance;
+            if (wait > 0) {
+                return wait;
+            }
+            if (full.compareAndSet(current, start + interval)) {
+                return 0;
+            }
+        }
+    }
+
+    int clients() {
+        return buckets.size();
+    }
+
+    private void sweep(long now) {
+        long last = lastSweep.get();
+        if (buckets.size() < maxClients || now - last < SWEEP_INTERVAL || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        buckets.values().removeIf(full -> full.get() <= now);
+    }
+}
@@ -0,0 +1,221 @@
+package com.pragma.webflux.api.dao;
+
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Product;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index definitions of the collections behind the repositories, ensured at startup before
+ * the application reports ready, within {@code mongo.indexes.timeout}. Creating an index that
+ * already exists with the same keys and options is a no-op.
+ * <p>
+ * With {@code mongo.indexes.diagnostics} set to {@code warn} or {@code fail}, the filters
+ * and sorts of the repository queries are explained once the indexes exist and any plan
+ * falling back to a collection scan is logged, or aborts the startup.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class MongoIndexes implements ApplicationRunner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MongoIndexes.class);
+
+    public static final String DIAGNOSTICS_OFF = "off";
+    public static final String DIAGNOSTICS_WARN = "warn";
+    public static final String DIAGNOSTICS_FAIL = "fail";
+
+    private static final String COLLSCAN = "COLLSCAN";
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final QueryMapper queryMapper;
+    private final String diagnostics;
+    private final Duration timeout;
+
+    public MongoIndexes(ReactiveMongoTemplate mongoTemplate,
+                        @Value("${mongo.indexes.diagnostics}") String diagnostics,
+                        @Value("${mongo.indexes.timeout}") Duration timeout) {
+        this.mongoTemplate = mongoTemplate;
+        this.queryMapper = new QueryMapper(mongoTemplate.getConverter());
+        this.diagnostics = diagnostics;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Keyset pages sort by price or createAt and then by id, the compound indexes serve
+     * both the range filter and the sort. Category filters put the equality first, their
+     * prefix also serves plain category lookups.
+     */
+    static Map<Class<?>, List<Index>> definitions() {
+        Map<Class<?>, List<Index>> definitions = new LinkedHashMap<>();
+        definitions.put(Product.class, Arrays.asList(
+                new Index().on("name", Sort.Direction.ASC).named("name"),
+                new Index().on("category.id", Sort.Direction.ASC).on("price", Sort.Direction.ASC)
+                        .on("id", Sort.Direction.ASC).named("category_id_price_id"),
+                new Index().on("category.id", Sort.Direction.ASC).on("createAt", Sort.Direction.ASC)
+                        .on("id", Sort.Direction.ASC).named("category_id_createAt_id"),
+                new Index().on("createAt", Sort.Direction.ASC).on("id", Sort.Direction.ASC).named("createAt_id"),
+                new Index().on("price", Sort.Direction.ASC).on("id", Sort.Direction.ASC).named("price_id")));
+        definitions.put(Category.class, Arrays.asList(
+                new Index().on("name", Sort.Direction.ASC).unique().named("name")));
+        return definitions;
+    }
+
+    /**
+     * The filter and sort shapes of the repository queries, parameter values are irrelevant to the plan.
+     */
+    static List<RepositoryQuery> repositoryQueries() {
+        return Arrays.asList(
+                new RepositoryQuery("ProductRepository.findByName", Product.class,
+                        new Query(Criteria.where("name").is(""))),
+                new RepositoryQuery("ProductRepository.getProduct", Product.class,
+                        new Query(Criteria.where("name").is(""))),
+                new RepositoryQuery("ProductServiceImpl.findPage(sort=id)", Product.class,
+                        new Query(Criteria.where("id").gt("")).with(Sort.by("id"))),
+                new RepositoryQuery("ProductServiceImpl.findPage(sort=price)", Product.class,
+                        new Query(new Criteria().orOperator(
+                                Criteria.where("price").gt(0d),
+                                Criteria.where("price").is(0d).and("id").gt("")))
+                                .with(Sort.by("price", "id"))),
+                new RepositoryQuery("ProductServiceImpl.findPage(sort=price, after null)", Product.class,
+                        new Query(new Criteria().orOperator(
+                                Criteria.where("price").is(null).and("id").gt(""),
+                                Criteria.where("price").ne(null)))
+                                .with(Sort.by("price", "id"))),
+                new RepositoryQuery("ProductServiceImpl.findPage(sort=createAt)", Product.class,
+                        new Query(new Criteria().orOperator(
+                                Criteria.where("createAt").gt(new Date(0)),
+                                Criteria.where("createAt").is(new Date(0)).and("id").gt("")))
+                                .with(Sort.by("createAt", "id"))),
+                new RepositoryQuery("ProductServiceImpl.findPage(sort=createAt, after null)", Product.class,
+                        new Query(new Criteria().orOperator(
+                                Criteria.where("createAt").is(null).and("id").gt(""),
+                                Criteria.where("createAt").ne(null)))
+                                .with(Sort.by("createAt", "id"))),
+                new RepositoryQuery("ProductServiceImpl.findAll(category, price range, sort=price)", Product.class,
+                        new Query(Criteria.where("category.id").is("").and("price").gte(0d).lte(1d))
+                                .with(Sort.by("price", "id"))),
+                new RepositoryQuery("ProductServiceImpl.findAll(createdFrom, createdTo, sort=createAt)", Product.class,
+                        new Query(Criteria.where("createAt").gte(new Date(0)).lt(new Date()))
+                                .with(Sort.by("createAt", "id"))),
+                new RepositoryQuery("ProductServiceImpl.deleteAll", Product.class,
+                        new Query(Criteria.where("category.id").is(""))),
+                new RepositoryQuery("CategoryRepository.findByName", Category.class,
+                        new Query(Criteria.where("name").is(""))));
+    }
+
+    /**
+     * Blocks until the indexes exist, so that no request is served by a collection scan and
+     * the unique category names hold from the first write. Only the diagnostics of the
+     * {@code warn} mode run in the background.
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        ensureIndexes().block(timeout);
+        if (DIAGNOSTICS_FAIL.equals(diagnostics)) {
+            verifyQueryPlans().block(timeout);
+        } else if (!DIAGNOSTICS_OFF.equals(diagnostics)) {
+            verifyQueryPlans().subscribe(null, e -> LOG.warn("Could not explain the repository queries", e));
+        }
+    }
+
+    public Mono<Void> ensureIndexes() {
+        return Flux.fromIterable(definitions().entrySet())
+                .concatMap(entry -> Flux.fromIterable(entry.getValue())
+                        .concatMap(index -> mongoTemplate.indexOps(entry.getKey()).ensureIndex(index))
+                        .doOnNext(name -> LOG.debug(String.format("Index %s.%s ensured",
+                                mongoTemplate.getCollectionName(entry.getKey()), name))))
+                .then();
+    }
+
+    /**
+     * Explains every repository query and reports the ones planned as a collection scan.
+     *
+     * @throws IllegalStateException in {@code fail} mode when a query scans its collection
+     */
+    public Mono<Void> verifyQueryPlans() {
+        return Flux.fromIterable(repositoryQueries())
+                .concatMap(query -> explain(query.type, query.query)
+                        .filter(MongoIndexes::usesCollectionScan)
+                        .map(plan -> query.name))
+                .collectList()
+                .flatMap(scans -> {
+                    if (scans.isEmpty()) {
+                        LOG.info("Every repository query is served by an index");
+                        return Mono.empty();
+                    }
+                    String message = String.format("Repository queries planned as %s: %s", COLLSCAN, scans);
+                    if (DIAGNOSTICS_FAIL.equals(diagnostics)) {
+                        return Mono.error(new IllegalStateException(message));
+                    }
+                    LOG.warn(message);
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Document> explain(Class<?> type, Query query) {
+        MongoPersistentEntity<?> entity = mongoTemplate.getConverter().getMappingContext().getPersistentEntity(type);
+        Document filter = queryMapper.getMappedObject(query.getQueryObject(), entity);
+        Document sort = queryMapper.getMappedSort(query.getSortObject(), entity);
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(type))
+                .flatMap(collection -> Mono.from(collection.find(filter).sort(sort).explain()));
+    }
+
+    /**
+     * Whether the winning plan of an explain output has a {@code COLLSCAN} stage at any depth.
+     */
+    static boolean usesCollectionScan(Document explain) {
+        Object planner = explain.get("queryPlanner");
+        return planner instanceof Document && hasStage(((Document) planner).get("winningPlan"), COLLSCAN);
+    }
+
+    private static boolean hasStage(Object node, String stage) {
+        if (node instanceof Document) {
+            Document document = (Document) node;
+            if (stage.equals(document.get("stage"))) {
+                return true;
+            }
+            return document.values().stream().anyMatch(value -> hasStage(value, stage));
+        }
+        if (node instanceof Collection) {
+            return ((Collection<?>) node).stream().anyMatch(value -> hasStage(value, stage));
+        }
+        return false;
+    }
+
+    static final class RepositoryQuery {
+
+        final String name;
+        final Class<?> type;
+        final Query query;
+
+        RepositoryQuery(String name, Class<?> type, Query query) {
+            this.name = name;
+            this.type = type;
+            this.query = query;
+        }
+    }
+}
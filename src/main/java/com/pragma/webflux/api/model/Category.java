@@ -23,6 +23,11 @@ public class Category {
         this.name = name;
     }
 
+    public Category(Category category) {
+        this(category.getName());
+        this.id = category.getId();
+    }
+
     @Override
     public String toString() {
         return "Category{" +
@@ -6,6 +6,9 @@ import lombok.Setter;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @Getter
 @Setter
 @NoArgsConstructor
@@ -15,17 +18,24 @@ public class Image {
     @Id
     private String id;
 
-    private String base64;
+    private Map<String, String> renditions = new HashMap<>();
+
+    public Image(String id) {
+        this.id = id;
+    }
 
-    public Image(String base64) {
-        this.base64 = base64;
+    public Image(Image image) {
+        this(image.getId());
+        if (image.getRenditions() != null) {
+            this.renditions = new HashMap<>(image.getRenditions());
+        }
     }
 
     @Override
     public String toString() {
         return "Image{" +
                 "id='" + id + '\'' +
-                ", base64='" + base64 + '\'' +
+                ", renditions=" + renditions +
                 '}';
     }
 }
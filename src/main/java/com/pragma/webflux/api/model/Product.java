@@ -1,9 +1,12 @@
 package com.pragma.webflux.api.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.format.annotation.DateTimeFormat;
 
@@ -12,14 +15,19 @@ import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 @Getter
 @Setter
 @NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 @Document(collection = "products")
 public class Product {
 
+    public static final String EXPAND_IMAGES = "images";
+
     @Id
     private String id;
     @NotEmpty
@@ -31,7 +39,13 @@ public class Product {
     @Valid
     @NotNull
     private Category category;
-    private Set<Image> images = new HashSet<>();
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private Set<String> imageIds = new HashSet<>();
+    @Transient
+    private List<Image> images;
+    @Version
+    private Long version;
+    private Date lastModified;
 
     public Product(String name, Double price) {
         this.name = name;
@@ -43,6 +57,24 @@ public class Product {
         this.category = category;
     }
 
+    /**
+     * Deep copy, a copy handed out by a cache can be modified without affecting the cached one.
+     */
+    public Product(Product product) {
+        this(product.getName(), product.getPrice(),
+                product.getCategory() == null ? null : new Category(product.getCategory()));
+        this.id = product.getId();
+        this.createAt = product.getCreateAt() == null ? null : new Date(product.getCreateAt().getTime());
+        this.version = product.getVersion();
+        this.lastModified = product.getLastModified() == null ? null : new Date(product.getLastModified().getTime());
+        if (product.getImageIds() != null) {
+            this.imageIds = new HashSet<>(product.getImageIds());
+        }
+        if (product.getImages() != null) {
+            this.images = product.getImages().stream().map(Image::new).collect(Collectors.toList());
+        }
+    }
+
     @Override
     public String toString() {
         return "Product{" +
@@ -50,7 +82,7 @@ public class Product {
                 ", name='" + name + '\'' +
                 ", price=" + price + '\'' +
                 ", "+ category +
-                ", "+ images +
+                ", "+ imageIds +
                 '}';
     }
 }
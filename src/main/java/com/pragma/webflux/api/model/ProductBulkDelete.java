@@ -0,0 +1,25 @@
+package com.pragma.webflux.api.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+public class ProductBulkDelete {
+
+    private List<String> ids = new ArrayList<>();
+    private String categoryId;
+
+    @Override
+    public String toString() {
+        return "ProductBulkDelete{" +
+                "ids=" + ids +
+                ", categoryId='" + categoryId + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,42 @@
+package com.pragma.webflux.api.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.Collections;
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductBulkResult {
+
+    public static final String CREATED = "created";
+    public static final String ERROR = "error";
+
+    private long index;
+    private String id;
+    private String status;
+    private List<String> errors;
+
+    public static ProductBulkResult created(long index, String id) {
+        return new ProductBulkResult(index, id, CREATED, Collections.emptyList());
+    }
+
+    public static ProductBulkResult failed(long index, List<String> errors) {
+        return new ProductBulkResult(index, null, ERROR, errors);
+    }
+
+    @Override
+    public String toString() {
+        return "ProductBulkResult{" +
+                "index=" + index +
+                ", id='" + id + '\'' +
+                ", status='" + status + '\'' +
+                ", errors=" + errors +
+                '}';
+    }
+}
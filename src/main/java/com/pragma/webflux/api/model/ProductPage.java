@@ -0,0 +1,27 @@
+package com.pragma.webflux.api.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductPage {
+
+    private List<Product> content = new ArrayList<>();
+    private String next;
+
+    @Override
+    public String toString() {
+        return "ProductPage{" +
+                "content=" + content +
+                ", next='" + next + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,372 @@
+package com.pragma.webflux.api.service;
+
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Image;
+import com.pragma.webflux.api.model.Product;
+import com.pragma.webflux.api.model.ProductBulkResult;
+import com.pragma.webflux.api.model.ProductPage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Read-through cache in front of {@link ProductServiceImpl}.
+ * Entries are bounded by size and TTL (W-TinyLFU eviction), writes refresh the
+ * cached product so readers never see a stale copy after an update.
+ * Callers always get their own copy, so mutating a result never alters the cache.
+ * The {@link ProductSearchIndex} is kept in sync on the same write paths.
+ * Categories are served by the {@link CategoryRegistry}, which holds all of them.
+ * Writes made by other instances arrive through the {@link ChangeStreamSubscriber}.
+ */
+@Service
+public class CachingProductService implements IProductService, ChangeListener<Product> {
+
+    private final ProductServiceImpl delegate;
+    private final ProductSearchIndex searchIndex;
+    private final CategoryRegistry categories;
+
+    private final AsyncCache<String, Product> productsById;
+    private final AsyncCache<String, String> productIdsByName;
+    private final AsyncCache<String, String> categoryIdsByName;
+
+    public CachingProductService(ProductServiceImpl delegate,
+                                 ProductSearchIndex searchIndex,
+                                 CategoryRegistry categories,
+                                 @Value("${cache.products.maximum-size}") long productsSize,
+                                 @Value("${cache.products.expire-after-write}") Duration productsTtl,
+                                 @Value("${cache.categories.maximum-size}") long categoriesSize,
+                                 @Value("${cache.categories.expire-after-write}") Duration categoriesTtl) {
+        this.delegate = delegate;
+        this.searchIndex = searchIndex;
+        this.categories = categories;
+        this.productsById = newCache(productsSize, productsTtl);
+        this.productIdsByName = newCache(productsSize, productsTtl);
+        this.categoryIdsByName = newCache(categoriesSize, categoriesTtl);
+    }
+
+    private static <V> AsyncCache<String, V> newCache(long maximumSize, Duration ttl) {
+        return Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+    }
+
+    /**
+     * Hit, miss and eviction counters of every cache, keyed by cache name.
+     */
+    public Map<String, CacheStats> stats() {
+        Map<String, CacheStats> stats = new LinkedHashMap<>();
+        stats.put("productsById", productsById.synchronous().stats());
+        stats.put("productIdsByName", productIdsByName.synchronous().stats());
+        stats.put("categoryIdsByName", categoryIdsByName.synchronous().stats());
+        return stats;
+    }
+
+    /**
+     * Publishes the {@link #stats()} counters as {@code cache.*} meters, one {@code cache} tag per cache.
+     */
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, productsById, "productsById");
+        CaffeineCacheMetrics.monitor(registry, productIdsByName, "productIdsByName");
+        CaffeineCacheMetrics.monitor(registry, categoryIdsByName, "categoryIdsByName");
+    }
+
+    @Override
+    public Flux<Product> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public Flux<Product> findAll(ProductFilter filter, Set<String> fields) {
+        return delegate.findAll(filter, fields);
+    }
+
+    @Override
+    public Flux<Product> findAllWithNameUppercase() {
+        return delegate.findAllWithNameUppercase();
+    }
+
+    @Override
+    public Flux<Product> findAllWithNameUppercaseRepeat() {
+        return delegate.findAllWithNameUppercaseRepeat();
+    }
+
+    @Override
+    public Mono<ProductPage> findPage(String after, int limit, ProductFilter filter, Set<String> fields) {
+        return delegate.findPage(after, limit, filter, fields);
+    }
+
+    @Override
+    public Mono<Product> findById(String id) {
+        return Mono.fromFuture(() -> productsById.get(id, (key, executor) -> delegate.findById(key).toFuture()))
+                .map(Product::new);
+    }
+
+    /**
+     * A cached product answers any projection, otherwise only the selected fields are read.
+     */
+    @Override
+    public Mono<Product> findById(String id, Set<String> fields) {
+        if (fields.isEmpty()) {
+            return findById(id);
+        }
+        CompletableFuture<Product> cached = productsById.getIfPresent(id);
+        if (cached == null) {
+            return delegate.findById(id, fields);
+        }
+        return Mono.fromFuture(cached)
+                .map(product -> ProductFields.retain(new Product(product), fields));
+    }
+
+    @Override
+    public Mono<Product> findByIdWithNameUppercase(String id, Set<String> fields) {
+        return findById(id, fields)
+                .map(product -> {
+                    if (product.getName() != null) {
+                        product.setName(product.getName().toUpperCase());
+                    }
+                    return product;
+                });
+    }
+
+    @Override
+    public Mono<Product> save(Product product) {
+        return delegate.save(product)
+                .doOnNext(this::refresh)
+                .doOnError(e -> invalidateProduct(product.getId()));
+    }
+
+    @Override
+    public Mono<Product> update(String id, Product changes, boolean partial) {
+        return delegate.update(id, changes, partial)
+                .doOnNext(this::refresh)
+                .doOnError(e -> invalidateProduct(id));
+    }
+
+    @Override
+    public Flux<ProductBulkResult> insertAll(List<Product> products) {
+        return delegate.insertAll(products)
+                .doOnNext(result -> {
+                    if (ProductBulkResult.CREATED.equals(result.getStatus())) {
+                        searchIndex.index(products.get((int) result.getIndex()));
+                    }
+                });
+    }
+
+    @Override
+    public Mono<Void> delete(Product product) {
+        return delegate.delete(product)
+                .doOnSuccess(done -> searchIndex.remove(product.getId()))
+                .doOnTerminate(() -> invalidateProduct(product.getId()));
+    }
+
+    @Override
+    public Mono<Boolean> deleteById(String id) {
+        return delegate.deleteById(id)
+                .doOnNext(deleted -> {
+                    if (deleted) {
+                        searchIndex.remove(id);
+                    }
+                })
+                .doOnTerminate(() -> invalidateProduct(id));
+    }
+
+    @Override
+    public Mono<Long> deleteAll(List<String> ids, String categoryId) {
+        return delegate.deleteAll(ids, categoryId)
+                .doOnNext(deleted -> searchIndex.removeAll(ids, categoryId))
+                .doOnTerminate(() -> {
+                    if (categoryId != null) {
+                        productsById.synchronous().invalidateAll();
+                    } else if (ids != null) {
+                        productsById.synchronous().invalidateAll(ids);
+                    }
+                });
+    }
+
+    @Override
+    public Flux<Category> findAllCategories() {
+        return categories.isLoaded()
+                ? Flux.defer(() -> Flux.fromIterable(categories.findAll()))
+                : delegate.findAllCategories();
+    }
+
+    /**
+     * A category missing from the registry may have been created by another instance
+     * since the last reload, it is looked up and registered.
+     */
+    @Override
+    public Mono<Category> findCategoryById(String id) {
+        return Mono.fromSupplier(() -> categories.find(id))
+                .switchIfEmpty(Mono.defer(() -> delegate.findCategoryById(id)
+                        .doOnNext(categories::put)));
+    }
+
+    /**
+     * Saving an existing category may rename it on its products, they are evicted and reindexed.
+     * Writes that took the old name from the registry before it was updated may commit after the
+     * rename, so the rename runs again once the registry holds the new name.
+     */
+    @Override
+    public Mono<Category> saveCategory(Category category) {
+        boolean existing = category.getId() != null;
+        return delegate.saveCategory(category)
+                .doOnNext(categories::put)
+                .flatMap(saved -> existing
+                        ? delegate.renameCategoryOnProducts(saved).thenReturn(saved)
+                        : Mono.just(saved))
+                .doOnTerminate(() -> {
+                    if (existing) {
+                        productsById.synchronous().invalidateAll();
+                    }
+                })
+                .flatMap(saved -> existing
+                        ? searchIndex.indexAll(delegate.findAll(ProductFilter.of(saved.getId(), null, null, null, null, null),
+                                        Collections.emptySet()))
+                                .thenReturn(saved)
+                        : Mono.just(saved));
+    }
+
+    @Override
+    public Flux<Image> findAllImages() {
+        return delegate.findAllImages();
+    }
+
+    @Override
+    public Mono<Image> findImageById(String id) {
+        return delegate.findImageById(id);
+    }
+
+    @Override
+    public Mono<Image> saveImage(Image image) {
+        return delegate.saveImage(image);
+    }
+
+    @Override
+    public Mono<Product> addImage(Product product, Flux<DataBuffer> content, String filename) {
+        return delegate.addImage(product, content, filename)
+                .doOnNext(this::refresh)
+                .doOnError(e -> invalidateProduct(product.getId()));
+    }
+
+    @Override
+    public Flux<String> findReferencedImages() {
+        return delegate.findReferencedImages();
+    }
+
+    @Override
+    public Mono<Void> registerImage(String imageKey) {
+        return delegate.registerImage(imageKey);
+    }
+
+    @Override
+    public Mono<Boolean> setImageRenditions(String imageKey, Map<String, String> renditions) {
+        return delegate.setImageRenditions(imageKey, renditions);
+    }
+
+    @Override
+    public Flux<Image> findImagesByIds(Collection<String> ids) {
+        return delegate.findImagesByIds(ids);
+    }
+
+    @Override
+    public Flux<Product> expandImages(Flux<Product> products) {
+        return delegate.expandImages(products);
+    }
+
+    /**
+     * Names are cached as a pointer to the id, the product itself comes from the id cache.
+     * A pointer whose product was renamed or deleted is dropped and looked up again.
+     */
+    @Override
+    public Mono<Product> findByName(String name) {
+        return Mono.fromFuture(() -> productIdsByName.get(name, (key, executor) -> delegate.findByName(key)
+                        .map(product -> {
+                            productsById.put(product.getId(), CompletableFuture.completedFuture(product));
+                            return product.getId();
+                        })
+                        .toFuture()))
+                .flatMap(this::findById)
+                .filter(product -> name.equals(product.getName()))
+                .switchIfEmpty(Mono.defer(() -> {
+                    productIdsByName.synchronous().invalidate(name);
+                    return delegate.findByName(name);
+                }));
+    }
+
+    @Override
+    public Mono<Category> findCategoryByName(String name) {
+        return Mono.fromFuture(() -> categoryIdsByName.get(name, (key, executor) -> delegate.findCategoryByName(key)
+                        .map(category -> {
+                            categories.put(category);
+                            return category.getId();
+                        })
+                        .toFuture()))
+                .flatMap(this::findCategoryById)
+                .filter(category -> name.equals(category.getName()))
+                .switchIfEmpty(Mono.defer(() -> {
+                    categoryIdsByName.synchronous().invalidate(name);
+                    return delegate.findCategoryByName(name);
+                }));
+    }
+
+    /**
+     * A newer version replaces the cached product, a deleted product is evicted. Products
+     * that are not cached are left out, so that the cache only holds what is being read.
+     */
+    @Override
+    public void changed(String id, Product product) {
+        if (product == null) {
+            invalidateProduct(id);
+            searchIndex.remove(id);
+            return;
+        }
+        searchIndex.index(product);
+        CompletableFuture<Product> cached = productsById.getIfPresent(id);
+        if (cached == null || !cached.isDone() || cached.isCompletedExceptionally()) {
+            return;
+        }
+        Product current = cached.join();
+        if (current == null || current.getVersion() == null || product.getVersion() == null) {
+            invalidateProduct(id);
+        } else if (current.getVersion() < product.getVersion()) {
+            productsById.put(id, CompletableFuture.completedFuture(new Product(product)));
+        }
+    }
+
+    @Override
+    public void reset() {
+        productsById.synchronous().invalidateAll();
+        productIdsByName.synchronous().invalidateAll();
+        searchIndex.build();
+    }
+
+    private void refresh(Product product) {
+        productsById.put(product.getId(), CompletableFuture.completedFuture(new Product(product)));
+        searchIndex.index(product);
+    }
+
+    private void invalidateProduct(String id) {
+        if (id != null) {
+            productsById.synchronous().invalidate(id);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.pragma.webflux.api.service;
+
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Every category, held in memory. Categories are few and every product write checks its
+ * {@code category.id} here and embeds the registered copy, without a Mongo lookup. An id the
+ * registry does not know, because it is still loading or the category was created on another
+ * instance since, is looked up in Mongo once and registered.
+ * <p>
+ * The registry is loaded when the application is ready, updated by every save going through
+ * {@link CachingProductService} and by the writes of other instances that arrive through the
+ * {@link ChangeStreamSubscriber}. It is also reloaded every {@code cache.categories.refresh-interval},
+ * which alone keeps it up to date where change streams are not available. Saves made while a
+ * reload is running are kept over the reloaded state.
+ */
+@Component
+public class CategoryRegistry implements ChangeListener<Category> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CategoryRegistry.class);
+
+    private final ProductServiceImpl productService;
+
+    private volatile Map<String, Category> categories = new ConcurrentHashMap<>();
+    private Map<String, Category> savedDuringReload;
+    private volatile boolean loaded;
+
+    public CategoryRegistry(ProductServiceImpl productService) {
+        this.productService = productService;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        reload().subscribe(count -> LOG.info(String.format("Category registry loaded with %d categories", count)),
+                e -> LOG.warn("Could not load the category registry", e));
+    }
+
+    @Scheduled(initialDelayString = "${cache.categories.refresh-interval}", fixedDelayString = "${cache.categories.refresh-interval}")
+    public void refresh() {
+        reload().onErrorResume(e -> {
+            LOG.warn("Could not refresh the category registry", e);
+            return Mono.empty();
+        }).block();
+    }
+
+    /**
+     * Replaces the registered categories by the stored ones.
+     *
+     * @return the number of registered categories
+     */
+    public Mono<Integer> reload() {
+        return Mono.defer(() -> {
+            synchronized (this) {
+                savedDuringReload = new HashMap<>();
+            }
+            return productService.findAllCategories()
+                    .collectMap(Category::getId)
+                    .map(stored -> {
+                        synchronized (this) {
+                            Map<String, Category> reloaded = new ConcurrentHashMap<>(stored);
+                            if (savedDuringReload != null) {
+                                reloaded.putAll(savedDuringReload);
+                            }
+                            savedDuringReload = null;
+                            categories = reloaded;
+                            loaded = true;
+                            return reloaded.size();
+                        }
+                    });
+        });
+    }
+
+    public synchronized void put(Category category) {
+        Category copy = new Category(category);
+        categories.put(copy.getId(), copy);
+        if (savedDuringReload != null) {
+            savedDuringReload.put(copy.getId(), copy);
+        }
+    }
+
+    public synchronized void remove(String id) {
+        categories.remove(id);
+        if (savedDuringReload != null) {
+            savedDuringReload.remove(id);
+        }
+    }
+
+    @Override
+    public void changed(String id, Category category) {
+        if (category == null) {
+            remove(id);
+        } else {
+            put(category);
+        }
+    }
+
+    @Override
+    public void reset() {
+        load();
+    }
+
+    /**
+     * @return a copy of the category, null if it is not registered
+     */
+    public Category find(String id) {
+        Category category = id == null ? null : categories.get(id);
+        return category == null ? null : new Category(category);
+    }
+
+    /**
+     * Replaces the category embedded in the product by the registered one, so that products
+     * never carry a name the category no longer has. A missing category or id is left to
+     * bean validation.
+     *
+     * @return false if the product references a category that does not exist
+     */
+    public Mono<Boolean> embed(Product product) {
+        if (product.getCategory() == null || product.getCategory().getId() == null) {
+            return Mono.just(true);
+        }
+        String id = product.getCategory().getId();
+        Category registered = find(id);
+        Mono<Category> category = registered != null
+                ? Mono.just(registered)
+                : productService.findCategoryById(id)
+                .doOnNext(this::put)
+                .map(Category::new);
+        return category
+                .map(found -> {
+                    product.setCategory(found);
+                    return true;
+                })
+                .defaultIfEmpty(false);
+    }
+
+    /**
+     * @return copies of every category, sorted by name
+     */
+    public List<Category> findAll() {
+        return categories.values().stream()
+                .map(Category::new)
+                .sorted(Comparator.comparing(Category::getName, Comparator.nullsLast(Comparator.naturalOrder())))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Whether the stored categories have been read once, before that the registry only knows recent saves.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public int size() {
+        return categories.size();
+    }
+}
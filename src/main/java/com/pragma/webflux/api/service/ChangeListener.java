@@ -0,0 +1,18 @@
+package com.pragma.webflux.api.service;
+
+/**
+ * Local recipient of the writes made to a collection by any instance, see {@link ChangeStreamSubscriber}.
+ * Callbacks run on the change stream thread and must not block.
+ */
+public interface ChangeListener<T> {
+
+    /**
+     * @param document the document after the write, null when it was deleted
+     */
+    void changed(String id, T document);
+
+    /**
+     * Changes may have been missed, whatever was derived from the collection has to be dropped or reloaded.
+     */
+    void reset();
+}
@@ -0,0 +1,258 @@
+package com.pragma.webflux.api.service;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Product;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Follows the change streams of the collections that local caches derive from and fans every
+ * write, whichever instance made it, out to the registered {@link ChangeListener}s. The
+ * {@link CachingProductService} and the {@link CategoryRegistry} are registered up front.
+ * <p>
+ * The resume token of each stream is saved every {@code cache.changes.token-save-interval}
+ * in the {@value #TOKENS_COLLECTION} collection, per instance, so that a restarted instance
+ * resumes where it stopped. A stream that fails resumes from its last token; when the token
+ * is no longer in the oplog the stream starts over and the listeners are reset.
+ * <p>
+ * Change streams need a replica set. On a standalone server the caches fall back to
+ * TTL-only mode: entries are only refreshed by local writes and by their expiry.
+ */
+@Component
+public class ChangeStreamSubscriber {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeStreamSubscriber.class);
+
+    static final String TOKENS_COLLECTION = "changeStreamTokens";
+
+    /**
+     * Not a replica set, unknown {@code $changeStream} stage, not supported by the storage engine.
+     */
+    private static final Set<Integer> UNSUPPORTED = new HashSet<>(Arrays.asList(40573, 40324, 40415));
+    /**
+     * ChangeStreamFatalError, ChangeStreamHistoryLost: the resume token is gone.
+     */
+    private static final Set<Integer> HISTORY_LOST = new HashSet<>(Arrays.asList(280, 286));
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final String instanceId;
+    private final Duration tokenSaveInterval;
+    private final Duration retryInterval;
+
+    private final Map<Class<?>, List<ChangeListener<?>>> listeners = new ConcurrentHashMap<>();
+    private final Set<String> ttlOnly = ConcurrentHashMap.newKeySet();
+    private final List<Disposable> subscriptions = new CopyOnWriteArrayList<>();
+
+    public ChangeStreamSubscriber(ReactiveMongoTemplate mongoTemplate,
+                                  CachingProductService productService,
+                                  CategoryRegistry categoryRegistry,
+                                  @Value("${cache.changes.enabled}") boolean enabled,
+                                  @Value("${cache.changes.instance-id}") String instanceId,
+                                  @Value("${cache.changes.token-save-interval}") Duration tokenSaveInterval,
+                                  @Value("${cache.changes.retry-interval}") Duration retryInterval) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+        this.instanceId = instanceId;
+        this.tokenSaveInterval = tokenSaveInterval;
+        this.retryInterval = retryInterval;
+        register(Product.class, productService);
+        register(Category.class, categoryRegistry);
+    }
+
+    public <T> void register(Class<T> type, ChangeListener<T> listener) {
+        listeners.computeIfAbsent(type, key -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            LOG.info("Change streams are disabled, caches rely on their TTL");
+            return;
+        }
+        listeners.keySet().forEach(type -> subscriptions.add(follow(type).subscribe()));
+    }
+
+    @PreDestroy
+    public void stop() {
+        subscriptions.forEach(Disposable::dispose);
+        subscriptions.clear();
+    }
+
+    /**
+     * Collections whose change stream is unavailable, their caches rely on TTLs alone.
+     */
+    public Set<String> ttlOnlyCollections() {
+        return Collections.unmodifiableSet(ttlOnly);
+    }
+
+    <T> Mono<Void> follow(Class<T> type) {
+        String collection = mongoTemplate.getCollectionName(type);
+        AtomicReference<BsonValue> resumeToken = new AtomicReference<>();
+        Flux<BsonValue> tokens = Flux.defer(() -> mongoTemplate.changeStream(null, collection, options(resumeToken.get()), type))
+                .doOnNext(event -> {
+                    dispatch(type, event);
+                    resumeToken.set(event.getOperationType() == OperationType.INVALIDATE ? null : event.getResumeToken());
+                })
+                .map(ChangeStreamEvent::getResumeToken)
+                // an invalidated stream completes, it is opened again from the current time
+                .repeatWhen(completed -> completed.delayElements(retryInterval))
+                .retryWhen(Retry.fixedDelay(Long.MAX_VALUE, retryInterval)
+                        .filter(e -> !unsupported(e))
+                        .doBeforeRetry(signal -> {
+                            if (historyLost(signal.failure())) {
+                                LOG.warn(String.format("Change stream on %s cannot resume, starting over", collection), signal.failure());
+                                resumeToken.set(null);
+                                reset(type);
+                            } else {
+                                LOG.warn(String.format("Change stream on %s failed, resuming", collection), signal.failure());
+                            }
+                        }));
+        return loadToken(collection)
+                .doOnNext(resumeToken::set)
+                .thenMany(tokens
+                        .sample(tokenSaveInterval)
+                        .concatMap(token -> saveToken(collection, token)))
+                .doOnSubscribe(subscription -> LOG.info(String.format("Following the change stream of %s", collection)))
+                .onErrorResume(ChangeStreamSubscriber::unsupported, e -> {
+                    LOG.warn(String.format("Change streams are not available on %s, its caches rely on their TTL: %s",
+                            collection, e.getMessage()));
+                    ttlOnly.add(collection);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private static ChangeStreamOptions options(BsonValue resumeToken) {
+        ChangeStreamOptions.ChangeStreamOptionsBuilder options = ChangeStreamOptions.builder()
+                .fullDocumentLookup(FullDocument.UPDATE_LOOKUP);
+        if (resumeToken != null) {
+            options.resumeAfter(resumeToken);
+        }
+        return options.build();
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> void dispatch(Class<T> type, ChangeStreamEvent<T> event) {
+        OperationType operation = event.getOperationType();
+        if (operation == null) {
+            return;
+        }
+        switch (operation) {
+            case INSERT:
+            case UPDATE:
+            case REPLACE:
+            case DELETE:
+                String id = documentId(event);
+                if (id != null) {
+                    // an update whose document was deleted meanwhile has no body either
+                    T document = operation == OperationType.DELETE ? null : event.getBody();
+                    listeners.getOrDefault(type, Collections.emptyList())
+                            .forEach(listener -> ((ChangeListener<T>) listener).changed(id, document));
+                }
+                break;
+            case DROP:
+            case RENAME:
+            case DROP_DATABASE:
+            case INVALIDATE:
+                reset(type);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void reset(Class<?> type) {
+        listeners.getOrDefault(type, Collections.emptyList()).forEach(ChangeListener::reset);
+    }
+
+    private static String documentId(ChangeStreamEvent<?> event) {
+        BsonDocument key = event.getRaw() == null ? null : event.getRaw().getDocumentKey();
+        BsonValue id = key == null ? null : key.get("_id");
+        if (id == null) {
+            return null;
+        }
+        if (id.isObjectId()) {
+            return id.asObjectId().getValue().toHexString();
+        }
+        return id.isString() ? id.asString().getValue() : id.toString();
+    }
+
+    Mono<BsonValue> loadToken(String collection) {
+        return mongoTemplate.findById(tokenId(collection), Document.class, TOKENS_COLLECTION)
+                .mapNotNull(saved -> saved.get("token", Document.class))
+                .<BsonValue>map(token -> BsonDocument.parse(token.toJson()))
+                .onErrorResume(e -> {
+                    LOG.warn(String.format("Could not read the resume token of %s", collection), e);
+                    return Mono.empty();
+                });
+    }
+
+    Mono<Void> saveToken(String collection, BsonValue token) {
+        if (!token.isDocument()) {
+            return Mono.empty();
+        }
+        return mongoTemplate.upsert(new Query(Criteria.where("_id").is(tokenId(collection))),
+                        new Update().set("token", Document.parse(token.asDocument().toJson())).currentDate("savedAt"),
+                        TOKENS_COLLECTION)
+                .then()
+                .onErrorResume(e -> {
+                    LOG.warn(String.format("Could not save the resume token of %s", collection), e);
+                    return Mono.empty();
+                });
+    }
+
+    private String tokenId(String collection) {
+        return instanceId + ":" + collection;
+    }
+
+    private static boolean unsupported(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoException && UNSUPPORTED.contains(((MongoException) cause).getCode())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean historyLost(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoException && HISTORY_LOST.contains(((MongoException) cause).getCode())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,217 @@
+package com.pragma.webflux.api.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * {@link ImageStore} on the local file system. Images are named after the SHA-256 of
+ * their content and fanned out in sub directories by the first two hex digits.
+ * Uploads are written to a temporary file and moved in place once hashed.
+ */
+@Service
+public class FileSystemImageStore implements ImageStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileSystemImageStore.class);
+
+    private static final Pattern KEY = Pattern.compile("[0-9a-f]{64}(\\.[a-z0-9]{1,10})?");
+    private static final Pattern EXTENSION = Pattern.compile("[a-z0-9]{1,10}");
+    private static final String TEMP_DIRECTORY = ".tmp";
+
+    public static final String UPLOAD_BYTES = "images.upload.bytes";
+
+    private final Path root;
+    private final DistributionSummary storedBytes;
+    private final DistributionSummary duplicateBytes;
+
+    public FileSystemImageStore(@Value("${images.upload.path}") String imagesPath, MeterRegistry registry) {
+        this.root = Paths.get(imagesPath);
+        this.storedBytes = uploadBytes(registry, "stored");
+        this.duplicateBytes = uploadBytes(registry, "duplicate");
+    }
+
+    /**
+     * Size of the uploads read, split by whether the content was new or already stored.
+     */
+    private static DistributionSummary uploadBytes(MeterRegistry registry, String result) {
+        return DistributionSummary.builder(UPLOAD_BYTES)
+                .baseUnit(BaseUnits.BYTES)
+                .tag("result", result)
+                .register(registry);
+    }
+
+    @Override
+    public Mono<String> store(Flux<DataBuffer> content, String filename) {
+        return Mono.fromCallable(() -> {
+                    Path temp = root.resolve(TEMP_DIRECTORY);
+                    Files.createDirectories(temp);
+                    return temp.resolve(UUID.randomUUID().toString());
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(temp -> {
+                    MessageDigest digest = sha256();
+                    AtomicLong size = new AtomicLong();
+                    return DataBufferUtils
+                            .write(content.doOnNext(buffer -> {
+                                size.addAndGet(buffer.readableByteCount());
+                                digest.update(buffer.asByteBuffer());
+                            }), temp)
+                            .then(Mono.fromCallable(() -> commit(temp, toHex(digest.digest()) + extension(filename), size.get()))
+                                    .subscribeOn(Schedulers.boundedElastic()))
+                            .doOnError(e -> deleteQuietly(temp));
+                });
+    }
+
+    /**
+     * The image is returned as a file system resource, so WebFlux writes it with zero-copy
+     * file transfers and serves byte ranges from it.
+     */
+    @Override
+    public Mono<Resource> load(String key) {
+        if (!isKey(key)) {
+            return Mono.empty();
+        }
+        return Mono.fromCallable(() -> resolve(key))
+                .filter(Files::isRegularFile)
+                .<Resource>map(FileSystemResource::new)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public String etag(String key) {
+        return "\"" + key.substring(0, 64) + "\"";
+    }
+
+    @Override
+    public Mono<Long> deleteUnreferenced(Set<String> referencedKeys, Duration gracePeriod) {
+        return Mono.fromCallable(() -> {
+                    if (!Files.isDirectory(root)) {
+                        return 0L;
+                    }
+                    FileTime threshold = FileTime.from(Instant.now().minus(gracePeriod));
+                    List<Path> orphans;
+                    try (Stream<Path> files = Files.walk(root)) {
+                        orphans = files
+                                .filter(Files::isRegularFile)
+                                .filter(file -> isTemporary(file)
+                                        || isKey(file.getFileName().toString()) && !referencedKeys.contains(file.getFileName().toString()))
+                                .filter(file -> lastModifiedBefore(file, threshold))
+                                .collect(Collectors.toList());
+                    }
+                    // an upload may have renamed the same content over an orphan since the walk
+                    return orphans.stream()
+                            .filter(file -> lastModifiedBefore(file, threshold))
+                            .filter(FileSystemImageStore::deleteQuietly)
+                            .count();
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    public static boolean isKey(String key) {
+        return key != null && KEY.matcher(key).matches();
+    }
+
+    Path resolve(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    /**
+     * Renames the upload over the stored copy even when the content is already stored: the
+     * rename is atomic, so a garbage collection running meanwhile cannot leave the key without
+     * a file, and the fresh file counts as new for the grace period.
+     */
+    private String commit(Path temp, String key, long size) throws IOException {
+        Path target = resolve(key);
+        if (Files.exists(target)) {
+            duplicateBytes.record(size);
+            LOG.debug("Image {} already stored", key);
+        } else {
+            storedBytes.record(size);
+            Files.createDirectories(target.getParent());
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            Files.delete(temp);
+            Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+        }
+        return key;
+    }
+
+    private boolean isTemporary(Path file) {
+        return file.getParent() != null && file.getParent().equals(root.resolve(TEMP_DIRECTORY));
+    }
+
+    static String extension(String filename) {
+        int dot = filename == null ? -1 : filename.lastIndexOf('.');
+        if (dot < 0) {
+            return "";
+        }
+        String extension = filename.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return EXTENSION.matcher(extension).matches() ? "." + extension : "";
+    }
+
+    private static boolean lastModifiedBefore(Path file, FileTime threshold) {
+        try {
+            return Files.getLastModifiedTime(file).compareTo(threshold) < 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean deleteQuietly(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn("Could not delete {}", file, e);
+            return false;
+        }
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
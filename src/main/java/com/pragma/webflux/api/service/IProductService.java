@@ -4,17 +4,33 @@ package com.pragma.webflux.api.service;
 import com.pragma.webflux.api.model.Category;
 import com.pragma.webflux.api.model.Image;
 import com.pragma.webflux.api.model.Product;
+import com.pragma.webflux.api.model.ProductBulkResult;
+import com.pragma.webflux.api.model.ProductPage;
+import org.springframework.core.io.buffer.DataBuffer;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 public interface IProductService {
 
     Flux<Product> findAll();
+    Flux<Product> findAll(ProductFilter filter, Set<String> fields);
     Flux<Product> findAllWithNameUppercase();
     Flux<Product> findAllWithNameUppercaseRepeat();
+    Mono<ProductPage> findPage(String after, int limit, ProductFilter filter, Set<String> fields);
     Mono<Product> findById(String id);
+    Mono<Product> findById(String id, Set<String> fields);
+    Mono<Product> findByIdWithNameUppercase(String id, Set<String> fields);
     Mono<Product> save(Product product);
+    Mono<Product> update(String id, Product changes, boolean partial);
+    Flux<ProductBulkResult> insertAll(List<Product> products);
     Mono<Void> delete(Product product);
+    Mono<Boolean> deleteById(String id);
+    Mono<Long> deleteAll(List<String> ids, String categoryId);
 
     Flux<Category> findAllCategories();
     Mono<Category> findCategoryById(String id);
@@ -23,6 +39,12 @@ public interface IProductService {
     Flux<Image> findAllImages();
     Mono<Image> findImageById(String id);
     Mono<Image> saveImage(Image image);
+    Mono<Product> addImage(Product product, Flux<DataBuffer> content, String filename);
+    Flux<String> findReferencedImages();
+    Mono<Void> registerImage(String imageKey);
+    Mono<Boolean> setImageRenditions(String imageKey, Map<String, String> renditions);
+    Flux<Image> findImagesByIds(Collection<String> ids);
+    Flux<Product> expandImages(Flux<Product> products);
 
     Mono<Product> findByName(String name);
     Mono<Category> findCategoryByName(String name);
@@ -0,0 +1,49 @@
+package com.pragma.webflux.api.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashSet;
+
+/**
+ * Periodically removes stored images that no product references any more.
+ * <p>
+ * Mark and sweep rather than reference counts: the keys referenced by products and their
+ * renditions are collected, then the files outside that set and older than
+ * {@code images.store.gc-grace-period} are deleted. Product writes never update a counter,
+ * in exchange an orphaned file lives up to {@code images.store.gc-interval} plus the grace period.
+ * The grace period protects files stored by uploads whose product is not saved yet.
+ */
+@Component
+public class ImageGarbageCollector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImageGarbageCollector.class);
+
+    private final IProductService productService;
+    private final ImageStore imageStore;
+    private final Duration gracePeriod;
+
+    public ImageGarbageCollector(IProductService productService,
+                                 ImageStore imageStore,
+                                 @Value("${images.store.gc-grace-period}") Duration gracePeriod) {
+        this.productService = productService;
+        this.imageStore = imageStore;
+        this.gracePeriod = gracePeriod;
+    }
+
+    @Scheduled(initialDelayString = "${images.store.gc-interval}", fixedDelayString = "${images.store.gc-interval}")
+    public void collect() {
+        productService.findReferencedImages()
+                .collect(HashSet<String>::new, HashSet::add)
+                .flatMap(referenced -> imageStore.deleteUnreferenced(referenced, gracePeriod))
+                .doOnNext(deleted -> LOG.info(String.format("Deleted %d unreferenced images", deleted)))
+                .doOnError(e -> LOG.warn("Image garbage collection failed", e))
+                .onErrorResume(e -> Mono.empty())
+                .block();
+    }
+}
@@ -0,0 +1,233 @@
+package com.pragma.webflux.api.service;
+
+import com.pragma.webflux.api.model.Image;
+import com.pragma.webflux.api.model.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Produces downscaled renditions of uploaded images in the background and records
+ * them on the product image. Decoding and resizing run on a bounded pool of workers
+ * with a bounded queue; when the queue is full new jobs are dropped rather than
+ * piling up, the renditions of a dropped image are produced on its next upload.
+ * Renditions are recorded once per image document, products sharing an image share them.
+ * Renditions keep the format of the original, the JDK has no WebP encoder.
+ * Originals are only decoded when their header declares at most {@code images.renditions.max-pixels}
+ * pixels, and large ones are subsampled while decoding, so a small upload declaring huge
+ * dimensions cannot exhaust the heap.
+ */
+@Service
+public class ImageRenditionService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImageRenditionService.class);
+
+    public static final String THUMBNAIL = "thumbnail";
+    public static final String MEDIUM = "medium";
+
+    private final IProductService productService;
+    private final ImageStore imageStore;
+    private final Map<String, Integer> sizes = new LinkedHashMap<>();
+    private final long maxPixels;
+    private final Scheduler workers;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    public ImageRenditionService(IProductService productService,
+                                 ImageStore imageStore,
+                                 @Value("${images.renditions.thumbnail-size}") int thumbnailSize,
+                                 @Value("${images.renditions.medium-size}") int mediumSize,
+                                 @Value("${images.renditions.workers}") int workers,
+                                 @Value("${images.renditions.queue-capacity}") int queueCapacity,
+                                 @Value("${images.renditions.max-pixels}") long maxPixels) {
+        this.productService = productService;
+        this.imageStore = imageStore;
+        this.sizes.put(THUMBNAIL, thumbnailSize);
+        this.sizes.put(MEDIUM, mediumSize);
+        this.maxPixels = maxPixels;
+        this.workers = Schedulers.newBoundedElastic(workers, queueCapacity, "image-renditions");
+    }
+
+    /**
+     * Queues the images of the product that have no renditions yet.
+     */
+    public void submit(Product product) {
+        product.getImageIds().forEach(this::submit);
+    }
+
+    public void submit(String imageKey) {
+        if (!pending.add(imageKey)) {
+            return;
+        }
+        refresh(imageKey)
+                .doFinally(signal -> pending.remove(imageKey))
+                .subscribe(
+                        updated -> LOG.debug("Renditions of {} recorded: {}", imageKey, updated),
+                        e -> {
+                            if (e instanceof RejectedExecutionException) {
+                                LOG.warn("Rendition queue full, skipping {}", imageKey);
+                            } else {
+                                LOG.warn("Could not render {}", imageKey, e);
+                            }
+                        });
+    }
+
+    /**
+     * Renders the image unless its renditions are recorded and still stored.
+     *
+     * @return whether renditions were recorded, empty when the image needed none
+     */
+    Mono<Boolean> refresh(String imageKey) {
+        return productService.findImageById(imageKey)
+                .filterWhen(this::needsRenditions)
+                .flatMap(image -> render(imageKey))
+                .flatMap(renditions -> productService.setImageRenditions(imageKey, renditions));
+    }
+
+    /**
+     * The garbage collector deletes the renditions of an orphaned original along with it but keeps
+     * the image document, the same content uploaded again has to be rendered again.
+     */
+    private Mono<Boolean> needsRenditions(Image image) {
+        if (image.getRenditions() == null || image.getRenditions().isEmpty()) {
+            return Mono.just(true);
+        }
+        return Flux.fromIterable(image.getRenditions().values())
+                .concatMap(key -> imageStore.load(key).hasElement())
+                .any(stored -> !stored);
+    }
+
+    Mono<Map<String, String>> render(String imageKey) {
+        String format = format(imageKey);
+        return imageStore.load(imageKey)
+                .publishOn(workers)
+                .flatMap(resource -> Mono.justOrEmpty(read(resource)))
+                .flatMapMany(original -> Flux.fromIterable(sizes.entrySet())
+                        .concatMap(size -> {
+                            if (Math.max(original.getWidth(), original.getHeight()) <= size.getValue()) {
+                                return Mono.just(Tuples.of(size.getKey(), imageKey));
+                            }
+                            byte[] bytes = encode(scale(original, size.getValue(), format), format);
+                            return imageStore
+                                    .store(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(bytes)), size.getKey() + "." + format)
+                                    .publishOn(workers)
+                                    .map(key -> Tuples.of(size.getKey(), key));
+                        }))
+                .collectMap(Tuple2::getT1, Tuple2::getT2)
+                .filter(renditions -> !renditions.isEmpty());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.dispose();
+    }
+
+    /**
+     * Decodes the image from the dimensions in its header: images over {@link #maxPixels} are
+     * refused, the others are subsampled down to at least twice the largest rendition.
+     *
+     * @return null if the image cannot be read or is too large
+     */
+    private BufferedImage read(Resource resource) {
+        try (InputStream in = resource.getInputStream();
+             ImageInputStream stream = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = stream == null ? Collections.emptyIterator() : ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                LOG.warn("No image reader for {}", resource);
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    LOG.warn("Image {} is {}x{}, over the limit of {} pixels", resource, width, height, maxPixels);
+                    return null;
+                }
+                int largest = Collections.max(sizes.values());
+                int subsampling = Math.max(1, Math.max(width, height) / (2 * largest));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not read image {}", resource, e);
+            return null;
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage original, int size, String format) {
+        double ratio = (double) size / Math.max(original.getWidth(), original.getHeight());
+        int width = Math.max(1, (int) Math.round(original.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(original.getHeight() * ratio));
+        int type = "png".equals(format) || "gif".equals(format) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage scaled = new BufferedImage(width, height, type);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(original, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private static byte[] encode(BufferedImage image, String format) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            if (!ImageIO.write(image, format, out)) {
+                throw new IllegalStateException("No image writer for " + format);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String format(String imageKey) {
+        int dot = imageKey.lastIndexOf('.');
+        String extension = dot < 0 ? "" : imageKey.substring(dot + 1).toLowerCase(Locale.ROOT);
+        switch (extension) {
+            case "jpg":
+            case "jpeg":
+                return "jpg";
+            case "gif":
+            case "bmp":
+                return extension;
+            default:
+                return "png";
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.pragma.webflux.api.service;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Content addressed storage for product images. Images are identified by a key
+ * derived from their content, so storing the same bytes twice yields the same key
+ * and keeps a single copy.
+ */
+public interface ImageStore {
+
+    /**
+     * Stores the content, hashing it while it streams in.
+     *
+     * @param filename original file name, only used to keep the extension
+     * @return the key of the stored image
+     */
+    Mono<String> store(Flux<DataBuffer> content, String filename);
+
+    /**
+     * @return the stored image, or empty when the key is unknown
+     */
+    Mono<Resource> load(String key);
+
+    /**
+     * Strong entity tag of the stored image, derived from its content.
+     */
+    String etag(String key);
+
+    /**
+     * Deletes every stored image whose key is not referenced and that was not
+     * written or reused within the grace period.
+     *
+     * @return the number of deleted images
+     */
+    Mono<Long> deleteUnreferenced(Set<String> referencedKeys, Duration gracePeriod);
+}
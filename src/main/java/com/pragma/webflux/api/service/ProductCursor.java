@@ -0,0 +1,83 @@
+package com.pragma.webflux.api.service;
+
+import com.pragma.webflux.api.model.Product;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Keyset position in a sorted product listing: the sort value and id of the last
+ * product of a page. Clients only see it as an opaque, URL safe token.
+ */
+@Getter
+public class ProductCursor {
+
+    public static final String SORT_ID = "id";
+    public static final String SORT_PRICE = "price";
+    public static final String SORT_CREATE_AT = "createAt";
+
+    private static final String VERSION = "v1";
+    private static final String SEPARATOR = "|";
+
+    private final String sort;
+    private final String value;
+    private final String id;
+
+    private ProductCursor(String sort, String value, String id) {
+        this.sort = sort;
+        this.value = value;
+        this.id = id;
+    }
+
+    public static ProductCursor of(String sort, Product product) {
+        String value;
+        switch (sort) {
+            case SORT_PRICE:
+                value = product.getPrice() == null ? "" : String.valueOf(product.getPrice());
+                break;
+            case SORT_CREATE_AT:
+                value = product.getCreateAt() == null ? "" : String.valueOf(product.getCreateAt().getTime());
+                break;
+            default:
+                value = "";
+                break;
+        }
+        return new ProductCursor(sort, value, product.getId());
+    }
+
+    /**
+     * @return the cursor encoded in the token, or null when the token was not produced by {@link #encode()}
+     */
+    public static ProductCursor decode(String token) {
+        String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        String[] parts = decoded.split("\\|", -1);
+        if (parts.length != 4 || !VERSION.equals(parts[0]) || !isSortable(parts[1])) {
+            return null;
+        }
+        return new ProductCursor(parts[1], parts[2], parts[3]);
+    }
+
+    public static boolean isSortable(String sort) {
+        return SORT_ID.equals(sort) || SORT_PRICE.equals(sort) || SORT_CREATE_AT.equals(sort);
+    }
+
+    public String encode() {
+        String raw = VERSION + SEPARATOR + sort + SEPARATOR + value + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Double getPriceValue() {
+        return value.isEmpty() ? null : Double.valueOf(value);
+    }
+
+    public Date getCreateAtValue() {
+        return value.isEmpty() ? null : new Date(Long.parseLong(value));
+    }
+}
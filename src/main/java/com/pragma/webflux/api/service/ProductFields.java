@@ -0,0 +1,101 @@
+package com.pragma.webflux.api.service;
+
+import com.pragma.webflux.api.model.Product;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Sparse fieldsets of product reads, e.g. {@code fields=id,name,price}.
+ * The selected fields become the Mongo projection, so the other ones are never read.
+ * The id is always returned and an empty set selects every field.
+ */
+public final class ProductFields {
+
+    public static final String ID = "id";
+    public static final String NAME = "name";
+    public static final String PRICE = "price";
+    public static final String CREATE_AT = "createAt";
+    public static final String CATEGORY = "category";
+    public static final String IMAGE_IDS = "imageIds";
+    public static final String VERSION = "version";
+    public static final String LAST_MODIFIED = "lastModified";
+
+    public static final List<String> SELECTABLE = Collections.unmodifiableList(
+            Arrays.asList(ID, NAME, PRICE, CREATE_AT, CATEGORY, IMAGE_IDS, VERSION, LAST_MODIFIED));
+
+    private ProductFields() {
+    }
+
+    /**
+     * @param fields comma separated field names, null or blank for every field
+     * @throws IllegalArgumentException on a field that is not {@link #SELECTABLE}
+     */
+    public static Set<String> parse(String fields) {
+        if (fields == null || fields.trim().isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> selected = new LinkedHashSet<>();
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (!SELECTABLE.contains(name)) {
+                throw new IllegalArgumentException("Unknown field: '" + name + "', expected one of " + SELECTABLE);
+            }
+            selected.add(name);
+        }
+        return selected;
+    }
+
+    /**
+     * Adds the fields a caller needs on top of the client selection, e.g. the sort key of a page.
+     */
+    static Set<String> including(Set<String> fields, String... required) {
+        if (fields.isEmpty()) {
+            return fields;
+        }
+        Set<String> union = new HashSet<>(fields);
+        union.addAll(Arrays.asList(required));
+        return union;
+    }
+
+    static Query project(Query query, Set<String> fields) {
+        fields.forEach(field -> query.fields().include(field));
+        return query;
+    }
+
+    /**
+     * Clears the fields that are not selected, the in-memory counterpart of {@link #project(Query, Set)}.
+     */
+    static Product retain(Product product, Set<String> fields) {
+        if (fields.isEmpty()) {
+            return product;
+        }
+        if (!fields.contains(NAME)) {
+            product.setName(null);
+        }
+        if (!fields.contains(PRICE)) {
+            product.setPrice(null);
+        }
+        if (!fields.contains(CREATE_AT)) {
+            product.setCreateAt(null);
+        }
+        if (!fields.contains(CATEGORY)) {
+            product.setCategory(null);
+        }
+        if (!fields.contains(IMAGE_IDS)) {
+            product.setImageIds(new HashSet<>());
+        }
+        if (!fields.contains(VERSION)) {
+            product.setVersion(null);
+        }
+        if (!fields.contains(LAST_MODIFIED)) {
+            product.setLastModified(null);
+        }
+        return product;
+    }
+}
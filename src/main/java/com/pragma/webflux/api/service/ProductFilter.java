@@ -0,0 +1,157 @@
+package com.pragma.webflux.api.service;
+
+import lombok.Getter;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Server side filter of product listings: category id, price range and creation window,
+ * plus the sort order. The predicates compile to a single Mongo query served by the
+ * {@code category.id}, {@code price} and {@code createAt} indexes.
+ * <p>
+ * Dates are either ISO instants or {@code yyyy-MM-dd} days in UTC. {@code createdFrom} is
+ * inclusive and {@code createdTo} exclusive, a day given as {@code createdTo} is included whole.
+ */
+@Getter
+public class ProductFilter {
+
+    public static final ProductFilter NONE = new ProductFilter(null, null, null, null, null, null);
+
+    private final String categoryId;
+    private final Double minPrice;
+    private final Double maxPrice;
+    private final Date createdFrom;
+    private final Date createdTo;
+    private final String sort;
+
+    private ProductFilter(String categoryId, Double minPrice, Double maxPrice, Date createdFrom, Date createdTo, String sort) {
+        this.categoryId = categoryId;
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+        this.createdFrom = createdFrom;
+        this.createdTo = createdTo;
+        this.sort = sort;
+    }
+
+    /**
+     * Parses the request parameters, any of them may be null.
+     *
+     * @throws IllegalArgumentException on a malformed value, an empty range or an unsupported sort
+     */
+    public static ProductFilter of(String category, String minPrice, String maxPrice,
+                                   String createdFrom, String createdTo, String sort) {
+        ProductFilter filter = new ProductFilter(
+                blankToNull(category),
+                parsePrice("minPrice", minPrice),
+                parsePrice("maxPrice", maxPrice),
+                parseDate("createdFrom", createdFrom, false),
+                parseDate("createdTo", createdTo, true),
+                blankToNull(sort));
+        if (filter.sort != null && !ProductCursor.isSortable(filter.sort)) {
+            throw new IllegalArgumentException("Unsupported sort: '" + filter.sort + "'");
+        }
+        if (filter.minPrice != null && filter.maxPrice != null && filter.minPrice > filter.maxPrice) {
+            throw new IllegalArgumentException("minPrice must not be greater than maxPrice");
+        }
+        if (filter.createdFrom != null && filter.createdTo != null && !filter.createdFrom.before(filter.createdTo)) {
+            throw new IllegalArgumentException("createdFrom must be before createdTo");
+        }
+        return filter;
+    }
+
+    /**
+     * @return the requested sort, by id when none was given
+     */
+    public String getSortOrDefault() {
+        return sort == null ? ProductCursor.SORT_ID : sort;
+    }
+
+    public boolean isEmpty() {
+        return categoryId == null && minPrice == null && maxPrice == null
+                && createdFrom == null && createdTo == null && sort == null;
+    }
+
+    List<Criteria> toCriteria() {
+        List<Criteria> criteria = new ArrayList<>();
+        if (categoryId != null) {
+            criteria.add(Criteria.where("category.id").is(categoryId));
+        }
+        if (minPrice != null || maxPrice != null) {
+            Criteria price = Criteria.where("price");
+            if (minPrice != null) {
+                price.gte(minPrice);
+            }
+            if (maxPrice != null) {
+                price.lte(maxPrice);
+            }
+            criteria.add(price);
+        }
+        if (createdFrom != null || createdTo != null) {
+            Criteria createAt = Criteria.where("createAt");
+            if (createdFrom != null) {
+                createAt.gte(createdFrom);
+            }
+            if (createdTo != null) {
+                createAt.lt(createdTo);
+            }
+            criteria.add(createAt);
+        }
+        return criteria;
+    }
+
+    /**
+     * The filter predicates and the extra ones (e.g. a keyset position) in one query,
+     * sorted by the given field and then by id, unsorted when {@code sort} is null.
+     */
+    Query toQuery(String sort, List<Criteria> extra) {
+        List<Criteria> criteria = toCriteria();
+        criteria.addAll(extra);
+        Query query = criteria.isEmpty()
+                ? new Query()
+                : new Query(criteria.size() == 1 ? criteria.get(0) : new Criteria().andOperator(criteria));
+        if (sort != null) {
+            query.with(Sort.by(sort).and(Sort.by(ProductCursor.SORT_ID)));
+        }
+        return query;
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    private static Double parsePrice(String name, String value) {
+        if (blankToNull(value) == null) {
+            return null;
+        }
+        try {
+            return Double.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number: '" + value + "'");
+        }
+    }
+
+    private static Date parseDate(String name, String value, boolean endOfDay) {
+        if (blankToNull(value) == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        try {
+            if (trimmed.length() == 10) {
+                LocalDate day = LocalDate.parse(trimmed);
+                return Date.from((endOfDay ? day.plusDays(1) : day).atStartOfDay(ZoneOffset.UTC).toInstant());
+            }
+            return Date.from(Instant.parse(trimmed));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " must be an ISO date or instant: '" + value + "'");
+        }
+    }
+}
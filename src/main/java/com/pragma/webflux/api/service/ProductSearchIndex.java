@@ -0,0 +1,357 @@
+package com.pragma.webflux.api.service;
+
+import com.pragma.webflux.api.model.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index over product and category names, for typeahead search
+ * without regex scans on Mongo.
+ * <p>
+ * Terms are lower-cased and accent folded ("Cómoda" matches "comoda") and kept sorted,
+ * so every query term is a prefix range of the dictionary. Posting lists are growable
+ * {@code int[]} of document numbers; a changed product gets a new number and the old
+ * one is tombstoned, which keeps postings sorted and appends cheap. Tombstones are
+ * purged once they outnumber the live documents.
+ * <p>
+ * {@link #rebuild()} indexes the stored products into a new index, reading only their id, name
+ * and category as they stream in, then swaps it in; products indexed or removed while it reads
+ * them keep their latest state.
+ */
+@Component
+public class ProductSearchIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductSearchIndex.class);
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Set<String> INDEXED_FIELDS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(ProductFields.NAME, ProductFields.CATEGORY)));
+
+    private final ProductServiceImpl productService;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Index index = new Index();
+    private Set<String> changedDuringRebuild;
+
+    public ProductSearchIndex(ProductServiceImpl productService) {
+        this.productService = productService;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        rebuild()
+                .subscribe(count -> LOG.info(String.format("Search index built with %d products", count)),
+                        e -> LOG.warn("Could not build the search index", e));
+    }
+
+    /**
+     * Replaces every indexed product by the stored ones.
+     *
+     * @return the number of indexed products
+     */
+    public Mono<Integer> rebuild() {
+        return Mono.defer(() -> {
+            lock.writeLock().lock();
+            try {
+                changedDuringRebuild = new HashSet<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            Index rebuilt = new Index();
+            return productService.findAll(ProductFilter.NONE, INDEXED_FIELDS)
+                    .doOnNext(product -> {
+                        if (product.getId() != null) {
+                            rebuilt.add(indexed(product));
+                        }
+                    })
+                    .then(Mono.fromCallable(() -> {
+                        lock.writeLock().lock();
+                        try {
+                            for (String productId : changedDuringRebuild) {
+                                rebuilt.remove(productId);
+                                IndexedProduct latest = index.get(productId);
+                                if (latest != null) {
+                                    rebuilt.add(latest);
+                                }
+                            }
+                            index = rebuilt;
+                            changedDuringRebuild = null;
+                            return index.size();
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                    }))
+                    .doOnError(e -> {
+                        lock.writeLock().lock();
+                        try {
+                            changedDuringRebuild = null;
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                    });
+        });
+    }
+
+    public Mono<Long> indexAll(Flux<Product> products) {
+        return products.doOnNext(this::index).count();
+    }
+
+    /**
+     * Adds the product or replaces its previous version.
+     */
+    public void index(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        IndexedProduct indexed = indexed(product);
+        lock.writeLock().lock();
+        try {
+            changed(product.getId());
+            index.remove(product.getId());
+            index.add(indexed);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static IndexedProduct indexed(Product product) {
+        Set<String> productTerms = new LinkedHashSet<>(tokenize(product.getName()));
+        String categoryId = null;
+        if (product.getCategory() != null) {
+            categoryId = product.getCategory().getId();
+            productTerms.addAll(tokenize(product.getCategory().getName()));
+        }
+        return new IndexedProduct(product.getId(), categoryId, productTerms.toArray(new String[0]));
+    }
+
+    public void remove(String productId) {
+        lock.writeLock().lock();
+        try {
+            changed(productId);
+            index.remove(productId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Mirrors a bulk delete: the given products, the products of the category, or the
+     * products among the given ones that are in the category when both are set.
+     */
+    public void removeAll(Collection<String> productIds, String categoryId) {
+        lock.writeLock().lock();
+        try {
+            Collection<String> removed = categoryId == null ? productIds : index.inCategory(categoryId, productIds);
+            if (removed != null) {
+                removed.forEach(productId -> {
+                    changed(productId);
+                    index.remove(productId);
+                });
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ids of the products matching every term of the query, each term as a prefix,
+     * in indexing order.
+     */
+    public List<String> search(String query, int limit) {
+        List<String> queryTerms = tokenize(query);
+        if (queryTerms.isEmpty() || limit < 1) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            return index.search(new LinkedHashSet<>(queryTerms), limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lower case, accent folded words of the text.
+     */
+    static List<String> tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        List<String> tokens = new ArrayList<>();
+        for (String token : SEPARATORS.split(folded.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private void changed(String productId) {
+        if (changedDuringRebuild != null) {
+            changedDuringRebuild.add(productId);
+        }
+    }
+
+    /**
+     * Dictionary and postings, guarded by the lock once it is the current index.
+     */
+    private static final class Index {
+
+        private final NavigableMap<String, Postings> terms = new TreeMap<>();
+        private final Map<String, Integer> docsByProductId = new HashMap<>();
+        private final List<IndexedProduct> docs = new ArrayList<>();
+        private final BitSet deleted = new BitSet();
+
+        IndexedProduct get(String productId) {
+            Integer doc = docsByProductId.get(productId);
+            return doc == null ? null : docs.get(doc);
+        }
+
+        void add(IndexedProduct indexed) {
+            int doc = docs.size();
+            docs.add(indexed);
+            docsByProductId.put(indexed.productId, doc);
+            for (String term : indexed.terms) {
+                terms.computeIfAbsent(term, t -> new Postings()).add(doc);
+            }
+        }
+
+        void remove(String productId) {
+            Integer doc = docsByProductId.remove(productId);
+            if (doc == null) {
+                return;
+            }
+            deleted.set(doc);
+            if (deleted.cardinality() > docsByProductId.size() && deleted.cardinality() > 1024) {
+                compact();
+            }
+        }
+
+        List<String> inCategory(String categoryId, Collection<String> productIds) {
+            List<String> found = new ArrayList<>();
+            for (int doc = 0; doc < docs.size(); doc++) {
+                IndexedProduct indexed = docs.get(doc);
+                if (!deleted.get(doc) && categoryId.equals(indexed.categoryId)
+                        && (productIds == null || productIds.isEmpty() || productIds.contains(indexed.productId))) {
+                    found.add(indexed.productId);
+                }
+            }
+            return found;
+        }
+
+        List<String> search(Set<String> queryTerms, int limit) {
+            BitSet matches = null;
+            for (String term : queryTerms) {
+                BitSet termMatches = new BitSet(docs.size());
+                terms.subMap(term, true, term + Character.MAX_VALUE, false)
+                        .values()
+                        .forEach(postings -> postings.addTo(termMatches));
+                if (matches == null) {
+                    matches = termMatches;
+                } else {
+                    matches.and(termMatches);
+                }
+                if (matches.isEmpty()) {
+                    return Collections.emptyList();
+                }
+            }
+            matches.andNot(deleted);
+            List<String> ids = new ArrayList<>(Math.min(limit, matches.cardinality()));
+            for (int doc = matches.nextSetBit(0); doc >= 0 && ids.size() < limit; doc = matches.nextSetBit(doc + 1)) {
+                ids.add(docs.get(doc).productId);
+            }
+            return ids;
+        }
+
+        int size() {
+            return docsByProductId.size();
+        }
+
+        /**
+         * Renumbers the live documents and rebuilds the postings without tombstones.
+         */
+        private void compact() {
+            List<IndexedProduct> live = new ArrayList<>(docsByProductId.size());
+            for (int doc = 0; doc < docs.size(); doc++) {
+                if (!deleted.get(doc)) {
+                    live.add(docs.get(doc));
+                }
+            }
+            docs.clear();
+            docsByProductId.clear();
+            deleted.clear();
+            terms.clear();
+            live.forEach(this::add);
+        }
+    }
+
+    private static final class IndexedProduct {
+
+        final String productId;
+        final String categoryId;
+        final String[] terms;
+
+        IndexedProduct(String productId, String categoryId, String[] terms) {
+            this.productId = productId;
+            this.categoryId = categoryId;
+            this.terms = terms;
+        }
+    }
+
+    /**
+     * Sorted document numbers of a term.
+     */
+    private static final class Postings {
+
+        private int[] docs = new int[4];
+        private int size;
+
+        void add(int doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+
+        void addTo(BitSet bits) {
+            for (int i = 0; i < size; i++) {
+                bits.set(docs[i]);
+            }
+        }
+    }
+}
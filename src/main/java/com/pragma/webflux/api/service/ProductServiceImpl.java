@@ -1,34 +1,84 @@
 package com.pragma.webflux.api.service;
 
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
 import com.pragma.webflux.api.dao.CategoryRepository;
 import com.pragma.webflux.api.dao.ImagesRepository;
 import com.pragma.webflux.api.dao.ProductRepository;
 import com.pragma.webflux.api.model.Category;
 import com.pragma.webflux.api.model.Image;
 import com.pragma.webflux.api.model.Product;
+import com.pragma.webflux.api.model.ProductBulkResult;
+import com.pragma.webflux.api.model.ProductPage;
 import lombok.AllArgsConstructor;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 @Service
 @AllArgsConstructor
 public class ProductServiceImpl implements IProductService{
 
     private static final Logger LOG = LoggerFactory.getLogger(ProductServiceImpl.class);
 
+    public static final int MAX_PAGE_SIZE = 500;
+    public static final int EXPAND_BATCH_SIZE = 100;
+
     private ProductRepository productRepository;
     private CategoryRepository categoryRepository;
     private ImagesRepository imagesRepository;
+    private ReactiveMongoTemplate mongoTemplate;
+    private ImageStore imageStore;
+
+    private final SingleFlight<String, Product> productsById = new SingleFlight<>(Product::new);
+    private final SingleFlight<Map.Entry<String, Set<String>>, Product> projectedProductsById = new SingleFlight<>(Product::new);
+    private final SingleFlight<String, Product> productsByName = new SingleFlight<>(Product::new);
+    private final SingleFlight<String, Category> categoriesByName = new SingleFlight<>(Category::new);
 
     @Override
     public Flux<Product> findAll() {
         return productRepository.findAll();
     }
 
+    /**
+     * Reads the products matching the filter in one query, only the selected fields are read.
+     */
+    @Override
+    public Flux<Product> findAll(ProductFilter filter, Set<String> fields) {
+        if (filter.isEmpty() && fields.isEmpty()) {
+            return findAll();
+        }
+        Query query = filter.toQuery(filter.getSort(), Collections.emptyList());
+        return mongoTemplate.find(ProductFields.project(query, fields), Product.class);
+    }
+
     @Override
     public Flux<Product> findAllWithNameUppercase() {
         return productRepository.findAll()
@@ -43,28 +93,239 @@ public class ProductServiceImpl implements IProductService{
         return findAllWithNameUppercase().repeat(5000);
     }
 
+    /**
+     * Keyset pagination: the next page starts right after the (sort value, id) of the
+     * cursor, so every page is an index range read and no documents are skipped.
+     * {@code after} is either a token returned in {@link ProductPage#getNext()} or a product id.
+     */
+    @Override
+    public Mono<ProductPage> findPage(String after, int limit, ProductFilter filter, Set<String> fields) {
+        String sort = filter.getSortOrDefault();
+        if (limit < 1) {
+            return Mono.error(new IllegalArgumentException("Limit must be greater than 0"));
+        }
+        int size = Math.min(limit, MAX_PAGE_SIZE);
+        Mono<Optional<ProductCursor>> cursor = after == null || after.isEmpty()
+                ? Mono.just(Optional.empty())
+                : resolveCursor(after, sort).map(Optional::of);
+        return cursor
+                .flatMapMany(c -> {
+                    Query query = filter
+                            .toQuery(sort, c.map(ProductServiceImpl::after).map(Collections::singletonList).orElse(Collections.emptyList()))
+                            .limit(size + 1);
+                    return mongoTemplate.find(ProductFields.project(query, ProductFields.including(fields, sort)), Product.class);
+                })
+                .collectList()
+                .map(products -> toPage(products, sort, size));
+    }
+
+    private Mono<ProductCursor> resolveCursor(String after, String sort) {
+        ProductCursor cursor = ProductCursor.decode(after);
+        if (cursor == null) {
+            return productRepository.findById(after)
+                    .map(product -> ProductCursor.of(sort, product))
+                    .switchIfEmpty(Mono.error(new IllegalArgumentException("Unknown product: '" + after + "'")));
+        }
+        if (!cursor.getSort().equals(sort)) {
+            return Mono.error(new IllegalArgumentException("Cursor was issued for sort '" + cursor.getSort() + "'"));
+        }
+        return Mono.just(cursor);
+    }
+
+    /**
+     * Products strictly after the cursor in (sort value, id) order. Missing price and createAt
+     * values sort first, so a null cursor value continues with the remaining nulls, then every
+     * product that has a value.
+     */
+    private static Criteria after(ProductCursor cursor) {
+        switch (cursor.getSort()) {
+            case ProductCursor.SORT_PRICE:
+                return after("price", cursor.getPriceValue(), cursor.getId());
+            case ProductCursor.SORT_CREATE_AT:
+                return after("createAt", cursor.getCreateAtValue(), cursor.getId());
+            default:
+                return Criteria.where("id").gt(cursor.getId());
+        }
+    }
+
+    private static Criteria after(String field, Object value, String id) {
+        if (value == null) {
+            return new Criteria().orOperator(
+                    Criteria.where(field).is(null).and("id").gt(id),
+                    Criteria.where(field).ne(null));
+        }
+        return new Criteria().orOperator(
+                Criteria.where(field).gt(value),
+                Criteria.where(field).is(value).and("id").gt(id));
+    }
+
+    private static ProductPage toPage(List<Product> products, String sort, int size) {
+        if (products.size() <= size) {
+            return new ProductPage(products, null);
+        }
+        List<Product> content = new ArrayList<>(products.subList(0, size));
+        return new ProductPage(content, ProductCursor.of(sort, content.get(size - 1)).encode());
+    }
+
+    /**
+     * Concurrent lookups of the same id share one round trip, so does every lookup below.
+     */
     @Override
     public Mono<Product> findById(String id) {
-        return productRepository.findAll()
-                .filter(product -> product.getId().equals(id))
-                .next()
+        return productsById.execute(id, productRepository::findById);
+    }
+
+    @Override
+    public Mono<Product> findById(String id, Set<String> fields) {
+        if (fields.isEmpty()) {
+            return findById(id);
+        }
+        return projectedProductsById.execute(new AbstractMap.SimpleImmutableEntry<>(id, fields), key ->
+                mongoTemplate.findOne(ProductFields.project(new Query(Criteria.where("id").is(key.getKey())), key.getValue()), Product.class));
+    }
+
+    @Override
+    public Mono<Product> findByIdWithNameUppercase(String id, Set<String> fields) {
+        return findById(id, fields)
                 .map(product->{
-                    product.setName(product.getName().toUpperCase());
+                    if (product.getName() != null) {
+                        product.setName(product.getName().toUpperCase());
+                    }
                     return product;
                 })
                 .doOnNext(product -> LOG.info(product.getName()));
     }
 
+    /**
+     * Saves the product, stamping its last modification time.
+     */
     @Override
     public Mono<Product> save(Product product) {
+        product.setLastModified(new Date());
         return productRepository.save(product);
     }
 
+    /**
+     * Updates name, price and category in a single findAndModify round trip, leaving the
+     * rest of the document untouched. When {@code changes} carries a version the update
+     * only applies to that version and fails with {@link OptimisticLockingFailureException}
+     * if the product was modified meanwhile. A partial update only sets the non null fields.
+     */
+    @Override
+    public Mono<Product> update(String id, Product changes, boolean partial) {
+        Update update = new Update();
+        if (!partial || changes.getName() != null) {
+            update.set("name", changes.getName());
+        }
+        if (!partial || changes.getPrice() != null) {
+            update.set("price", changes.getPrice());
+        }
+        if (!partial || changes.getCategory() != null) {
+            update.set("category", changes.getCategory());
+        }
+        update.inc("version", 1);
+        update.currentDate("lastModified");
+        Query query = new Query(Criteria.where("id").is(id));
+        if (changes.getVersion() != null) {
+            query.addCriteria(Criteria.where("version").is(changes.getVersion()));
+        }
+        return mongoTemplate
+                .findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Product.class)
+                .switchIfEmpty(Mono.defer(() -> changes.getVersion() == null
+                        ? Mono.empty()
+                        : productRepository.existsById(id)
+                        .filter(Boolean::booleanValue)
+                        .flatMap(exists -> Mono.<Product>error(new OptimisticLockingFailureException(
+                                "Product " + id + " is no longer at version " + changes.getVersion())))));
+    }
+
+    /**
+     * Writes all products with a single ordered insertMany round trip and reports one
+     * result per product, indexed by its position in the list. Ids are assigned up front
+     * so that, when a product is rejected, the ones written before it can still be
+     * reported and the ones after it are retried in a new batch.
+     */
+    @Override
+    public Flux<ProductBulkResult> insertAll(List<Product> products) {
+        return insertAll(products, 0);
+    }
+
+    private Flux<ProductBulkResult> insertAll(List<Product> products, int offset) {
+        if (products.isEmpty()) {
+            return Flux.empty();
+        }
+        products.stream()
+                .filter(product -> product.getId() == null)
+                .forEach(product -> product.setId(new ObjectId().toHexString()));
+        Date now = new Date();
+        products.forEach(product -> product.setLastModified(now));
+        return mongoTemplate.insertAll(products)
+                .thenMany(Flux.range(0, products.size()))
+                .map(i -> ProductBulkResult.created(offset + i, products.get(i).getId()))
+                .onErrorResume(e -> {
+                    BulkWriteError error = firstWriteError(e);
+                    if (error == null) {
+                        return Flux.range(0, products.size())
+                                .map(i -> ProductBulkResult.failed(offset + i, Collections.singletonList(String.valueOf(e.getMessage()))));
+                    }
+                    int failed = error.getIndex();
+                    return Flux.range(0, failed)
+                            .map(i -> ProductBulkResult.created(offset + i, products.get(i).getId()))
+                            .concatWith(Mono.just(ProductBulkResult.failed(offset + failed, Collections.singletonList(error.getMessage()))))
+                            .concatWith(insertAll(products.subList(failed + 1, products.size()), offset + failed + 1));
+                });
+    }
+
+    private static BulkWriteError firstWriteError(Throwable e) {
+        if (e instanceof BulkOperationException && !((BulkOperationException) e).getErrors().isEmpty()) {
+            return ((BulkOperationException) e).getErrors().get(0);
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoBulkWriteException && !((MongoBulkWriteException) cause).getWriteErrors().isEmpty()) {
+                return ((MongoBulkWriteException) cause).getWriteErrors().get(0);
+            }
+        }
+        return null;
+    }
+
     @Override
     public Mono<Void> delete(Product product) {
         return productRepository.delete(product);
     }
 
+    /**
+     * Removes the product without loading it first.
+     *
+     * @return whether a product was removed
+     */
+    @Override
+    public Mono<Boolean> deleteById(String id) {
+        return mongoTemplate.remove(new Query(Criteria.where("id").is(id)), Product.class)
+                .map(result -> result.getDeletedCount() > 0);
+    }
+
+    /**
+     * Removes the products with the given ids and/or category with a single remove query.
+     *
+     * @return the number of removed products
+     */
+    @Override
+    public Mono<Long> deleteAll(List<String> ids, String categoryId) {
+        boolean byIds = ids != null && !ids.isEmpty();
+        if (!byIds && categoryId == null) {
+            return Mono.error(new IllegalArgumentException("Either ids or categoryId is required"));
+        }
+        Query query = new Query();
+        if (byIds) {
+            query.addCriteria(Criteria.where("id").in(ids));
+        }
+        if (categoryId != null) {
+            query.addCriteria(Criteria.where("category.id").is(categoryId));
+        }
+        return mongoTemplate.remove(query, Product.class)
+                .map(DeleteResult::getDeletedCount);
+    }
+
     @Override
     public Flux<Category> findAllCategories() {
         return categoryRepository.findAll();
@@ -75,9 +336,41 @@ public class ProductServiceImpl implements IProductService{
         return categoryRepository.findById(id);
     }
 
+    /**
+     * Products embed a copy of their category, renaming a category rewrites the copies with
+     * a single updateMulti, see {@link #renameCategoryOnProducts(Category)}.
+     */
     @Override
     public Mono<Category> saveCategory(Category category) {
-        return categoryRepository.save(category);
+        if (category.getId() == null) {
+            return categoryRepository.save(category);
+        }
+        return categoryRepository.save(category)
+                .flatMap(saved -> renameCategoryOnProducts(saved).thenReturn(saved));
+    }
+
+    /**
+     * Sets the category name on every product embedding the category under another name,
+     * bumping the version of every product it changes. Running it again after the registry
+     * took the new name catches the products written with the old name meanwhile.
+     *
+     * @return the number of renamed products
+     */
+    public Mono<Long> renameCategoryOnProducts(Category category) {
+        return mongoTemplate
+                .updateMulti(new Query(Criteria.where("category.id").is(category.getId())
+                                .and("category.name").ne(category.getName())),
+                        new Update()
+                                .set("category.name", category.getName())
+                                .inc("version", 1)
+                                .currentDate("lastModified"),
+                        Product.class)
+                .map(UpdateResult::getModifiedCount)
+                .doOnNext(count -> {
+                    if (count > 0) {
+                        LOG.info(String.format("Renamed category %s on %d products", category.getId(), count));
+                    }
+                });
     }
 
     @Override
@@ -95,13 +388,106 @@ public class ProductServiceImpl implements IProductService{
         return imagesRepository.save(image);
     }
 
+    /**
+     * Batch loads the images of the products with one $in query per
+     * {@value #EXPAND_BATCH_SIZE} products and sets them on {@link Product#getImages()}.
+     */
+    @Override
+    public Flux<Product> expandImages(Flux<Product> products) {
+        return products
+                .buffer(EXPAND_BATCH_SIZE)
+                .concatMap(batch -> {
+                    Set<String> ids = batch.stream()
+                            .flatMap(product -> product.getImageIds().stream())
+                            .collect(Collectors.toSet());
+                    return findImagesByIds(ids)
+                            .collectMap(Image::getId)
+                            .flatMapIterable(images -> {
+                                batch.forEach(product -> product.setImages(product.getImageIds()
+                                        .stream()
+                                        .map(id -> images.getOrDefault(id, new Image(id)))
+                                        .collect(Collectors.toList())));
+                                return batch;
+                            });
+                });
+    }
+
+    @Override
+    public Flux<Image> findImagesByIds(Collection<String> ids) {
+        return ids.isEmpty() ? Flux.empty() : imagesRepository.findAllById(ids);
+    }
+
+    /**
+     * Stores the image, registers its document and appends its key to the product with an
+     * atomic {@code $addToSet}, so concurrent uploads to the same product neither lose images
+     * nor fail on the version check of a full save. Images are shared by content, so the
+     * document is only inserted the first time. Empty when the product was deleted meanwhile.
+     */
+    @Override
+    public Mono<Product> addImage(Product product, Flux<DataBuffer> content, String filename) {
+        if (filename == null || filename.isEmpty()) {
+            return Mono.just(product);
+        }
+        return imageStore.store(content, filename)
+                .flatMap(key -> registerImage(key)
+                        .then(mongoTemplate.findAndModify(
+                                new Query(Criteria.where("id").is(product.getId())),
+                                new Update()
+                                        .addToSet("imageIds", key)
+                                        .inc("version", 1)
+                                        .currentDate("lastModified"),
+                                FindAndModifyOptions.options().returnNew(true),
+                                Product.class)));
+    }
+
+    @Override
+    public Mono<Void> registerImage(String imageKey) {
+        return mongoTemplate
+                .upsert(new Query(Criteria.where("id").is(imageKey)),
+                        new Update().setOnInsert("renditions", Collections.emptyMap()),
+                        Image.class)
+                .then();
+    }
+
+    /**
+     * Keys of the stored images referenced by a product, including their renditions. The keys
+     * are streamed from a cursor over the products rather than returned by a distinct command,
+     * whose single result document would cap them at 16MB. Keys shared by several products may
+     * be emitted more than once.
+     */
+    @Override
+    public Flux<String> findReferencedImages() {
+        Query query = new Query();
+        query.fields().include("imageIds").exclude("_id");
+        return mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(Product.class))
+                .flatMapIterable(product -> product.getList("imageIds", String.class, Collections.emptyList()))
+                .buffer(EXPAND_BATCH_SIZE)
+                .map(LinkedHashSet::new)
+                .concatMap(ids -> Flux.fromIterable(ids)
+                        .concatWith(findImagesByIds(ids)
+                                .flatMapIterable(image -> image.getRenditions().values())));
+    }
+
+    /**
+     * Records the renditions on the image document, every product showing the image sees them.
+     *
+     * @return whether the image was found
+     */
+    @Override
+    public Mono<Boolean> setImageRenditions(String imageKey, Map<String, String> renditions) {
+        return mongoTemplate.updateFirst(new Query(Criteria.where("id").is(imageKey)),
+                        new Update().set("renditions", renditions),
+                        Image.class)
+                .map(result -> result.getMatchedCount() > 0);
+    }
+
     @Override
     public Mono<Product> findByName(String name) {
-        return productRepository.findByName(name);
+        return productsByName.execute(name, productRepository::findByName);
     }
 
     @Override
     public Mono<Category> findCategoryByName(String name) {
-        return categoryRepository.findByName(name);
+        return categoriesByName.execute(name, categoryRepository::findByName);
     }
 }
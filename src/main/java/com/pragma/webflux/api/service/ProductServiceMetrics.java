@@ -0,0 +1,100 @@
+package com.pragma.webflux.api.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Times every {@link IProductService} call as {@code product.service} tagged with the method
+ * name and outcome. Reactive results are timed from subscription to termination, so the
+ * timer covers the Mongo round trips rather than the assembly of the pipeline.
+ * <p>
+ * The timed service wraps {@link CachingProductService} and is the one injected everywhere,
+ * the cache statistics are bound along with it.
+ */
+@Configuration
+public class ProductServiceMetrics {
+
+    public static final String TIMER = "product.service";
+
+    @Bean
+    @Primary
+    public IProductService productService(CachingProductService cachingProductService, MeterRegistry registry) {
+        cachingProductService.bindTo(registry);
+        return timed(cachingProductService, registry);
+    }
+
+    static IProductService timed(IProductService target, MeterRegistry registry) {
+        return (IProductService) Proxy.newProxyInstance(
+                IProductService.class.getClassLoader(),
+                new Class<?>[]{IProductService.class},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return invoke(target, method, args);
+                    }
+                    if (Mono.class.isAssignableFrom(method.getReturnType())) {
+                        return Mono.defer(() -> {
+                            Timer.Sample sample = Timer.start(registry);
+                            return Mono.defer(() -> (Mono<?>) invoke(target, method, args))
+                                    .doFinally(signal -> sample.stop(timer(registry, method, signal)));
+                        });
+                    }
+                    if (Flux.class.isAssignableFrom(method.getReturnType())) {
+                        return Flux.defer(() -> {
+                            Timer.Sample sample = Timer.start(registry);
+                            return Flux.defer(() -> (Flux<?>) invoke(target, method, args))
+                                    .doFinally(signal -> sample.stop(timer(registry, method, signal)));
+                        });
+                    }
+                    Timer.Sample sample = Timer.start(registry);
+                    try {
+                        Object result = invoke(target, method, args);
+                        sample.stop(timer(registry, method, SignalType.ON_COMPLETE));
+                        return result;
+                    } catch (RuntimeException e) {
+                        sample.stop(timer(registry, method, SignalType.ON_ERROR));
+                        throw e;
+                    }
+                });
+    }
+
+    private static Timer timer(MeterRegistry registry, Method method, SignalType signal) {
+        return Timer.builder(TIMER)
+                .tag("method", method.getName())
+                .tag("outcome", outcome(signal))
+                .register(registry);
+    }
+
+    private static String outcome(SignalType signal) {
+        switch (signal) {
+            case ON_COMPLETE:
+                return "success";
+            case ON_ERROR:
+                return "error";
+            default:
+                return "cancelled";
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.pragma.webflux.api.service;
+
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Collapses concurrent identical reads: while a call for a key is in flight, callers
+ * asking for the same key wait for its result instead of starting their own round trip.
+ * The entry is removed as soon as the call completes, so nothing outlives the call itself
+ * and a caller arriving afterwards starts a fresh read.
+ * <p>
+ * The shared call runs to completion even if the caller that started it cancels, and
+ * every caller receives its own copy of the result.
+ */
+class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final UnaryOperator<V> copy;
+
+    SingleFlight(UnaryOperator<V> copy) {
+        this.copy = copy;
+    }
+
+    Mono<V> execute(K key, Function<K, Mono<V>> call) {
+        return Mono.defer(() -> {
+            CompletableFuture<V> started = new CompletableFuture<>();
+            CompletableFuture<V> flight = inFlight.putIfAbsent(key, started);
+            if (flight == null) {
+                flight = started;
+                Mono.defer(() -> call.apply(key)).subscribe(
+                        value -> {
+                            inFlight.remove(key, started);
+                            started.complete(value);
+                        },
+                        error -> {
+                            inFlight.remove(key, started);
+                            started.completeExceptionally(error);
+                        },
+                        () -> {
+                            inFlight.remove(key, started);
+                            started.complete(null);
+                        });
+            }
+            return Mono.fromFuture(flight).map(copy);
+        });
+    }
+
+    /**
+     * Number of keys with a call in flight.
+     */
+    int size() {
+        return inFlight.size();
+    }
+}
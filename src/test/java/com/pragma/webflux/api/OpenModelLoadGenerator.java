@@ -0,0 +1,205 @@
+package com.pragma.webflux.api;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Open-model load generator: requests start on a fixed schedule, however many are still in
+ * flight, and each latency is measured from the scheduled start rather than from the moment
+ * the request was sent, so that a stalled server shows up in the percentiles instead of
+ * slowing the client down (coordinated omission).
+ * <p>
+ * Operations are picked at random by weight. Latencies are recorded in microseconds, one
+ * HDR histogram per operation; requests started during the warm-up are not recorded.
+ */
+class OpenModelLoadGenerator {
+
+    /**
+     * Status recorded when a request fails without a response.
+     */
+    static final int NO_RESPONSE = -1;
+
+    private final int rate;
+    private final Duration warmUp;
+    private final Duration duration;
+    private final int maxInFlight;
+
+    OpenModelLoadGenerator(int rate, Duration warmUp, Duration duration, int maxInFlight) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        this.rate = rate;
+        this.warmUp = warmUp;
+        this.duration = duration;
+        this.maxInFlight = maxInFlight;
+    }
+
+    Map<String, Result> run(List<Operation> operations) {
+        Map<String, Result> results = new LinkedHashMap<>();
+        operations.forEach(operation -> results.put(operation.name, new Result(operation.name, duration)));
+        int[] cumulativeWeights = new int[operations.size()];
+        int totalWeight = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            totalWeight += operations.get(i).weight;
+            cumulativeWeights[i] = totalWeight;
+        }
+        if (totalWeight <= 0) {
+            throw new IllegalArgumentException("The workload has no operation with a positive weight");
+        }
+
+        long period = TimeUnit.SECONDS.toNanos(1) / rate;
+        long warmUpRequests = warmUp.toNanos() / period;
+        long requests = warmUpRequests + duration.toNanos() / period;
+        int weights = totalWeight;
+        Scheduler clock = Schedulers.newSingle("load-generator");
+        try {
+            long start = System.nanoTime();
+            Flux.interval(Duration.ofNanos(period), clock)
+                    .take(requests)
+                    .onBackpressureBuffer()
+                    .flatMap(request -> {
+                        long scheduled = start + (request + 1) * period;
+                        Operation operation = operations.get(pick(cumulativeWeights, weights));
+                        Result result = request < warmUpRequests ? null : results.get(operation.name);
+                        return Mono.defer(operation.call)
+                                .onErrorReturn(NO_RESPONSE)
+                                .defaultIfEmpty(NO_RESPONSE)
+                                .doOnNext(status -> {
+                                    if (result != null) {
+                                        result.record(System.nanoTime() - scheduled, status);
+                                    }
+                                });
+                    }, maxInFlight)
+                    .blockLast();
+        } finally {
+            clock.dispose();
+        }
+        return results;
+    }
+
+    private static int pick(int[] cumulativeWeights, int totalWeight) {
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return i;
+            }
+        }
+        return cumulativeWeights.length - 1;
+    }
+
+    /**
+     * Writes one {@code <operation>.hgrm} percentile distribution per operation, in
+     * milliseconds, plus {@code summary.txt} with every operation and all of them together.
+     */
+    static String report(Map<String, Result> results, Path directory) {
+        Histogram all = new Histogram(3);
+        long allRequests = 0;
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("%-10s %9s %8s %9s %9s %9s %9s %9s  %s",
+                "operation", "requests", "rps", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "statuses"));
+        try {
+            Files.createDirectories(directory);
+            for (Result result : results.values()) {
+                Histogram latencies = result.latencies.copy();
+                all.add(latencies);
+                allRequests += latencies.getTotalCount();
+                lines.add(result.summary(latencies));
+                try (PrintStream out = new PrintStream(Files.newOutputStream(directory.resolve(result.name + ".hgrm")))) {
+                    latencies.outputPercentileDistribution(out, 1000.0);
+                }
+            }
+            lines.add(Result.summary("all", all, allRequests / seconds(results), Map.of()));
+            try (PrintStream out = new PrintStream(Files.newOutputStream(directory.resolve("all.hgrm")))) {
+                all.outputPercentileDistribution(out, 1000.0);
+            }
+            String summary = String.join(System.lineSeparator(), lines);
+            Files.writeString(directory.resolve("summary.txt"), summary + System.lineSeparator());
+            return summary;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static double seconds(Map<String, Result> results) {
+        return results.values().stream()
+                .findFirst()
+                .map(result -> result.duration.toMillis() / 1000.0)
+                .orElse(1.0);
+    }
+
+    static class Operation {
+
+        private final String name;
+        private final int weight;
+        private final Supplier<Mono<Integer>> call;
+
+        /**
+         * @param call starts the request and emits the response status
+         */
+        Operation(String name, int weight, Supplier<Mono<Integer>> call) {
+            this.name = name;
+            this.weight = weight;
+            this.call = call;
+        }
+    }
+
+    static class Result {
+
+        private final String name;
+        private final Duration duration;
+        private final Histogram latencies = new ConcurrentHistogram(3);
+        private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        Result(String name, Duration duration) {
+            this.name = name;
+            this.duration = duration;
+        }
+
+        void record(long latencyNanos, int status) {
+            latencies.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+            statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+        }
+
+        long requests() {
+            return latencies.getTotalCount();
+        }
+
+        private String summary(Histogram latencies) {
+            Map<Integer, Long> counts = new TreeMap<>();
+            statuses.forEach((status, count) -> counts.put(status, count.sum()));
+            return summary(name, latencies, latencies.getTotalCount() / (duration.toMillis() / 1000.0), counts);
+        }
+
+        private static String summary(String name, Histogram latencies, double rps, Map<Integer, Long> statuses) {
+            return String.format("%-10s %9d %8.1f %9.2f %9.2f %9.2f %9.2f %9.2f  %s",
+                    name, latencies.getTotalCount(), rps,
+                    latencies.getValueAtPercentile(50) / 1000.0,
+                    latencies.getValueAtPercentile(90) / 1000.0,
+                    latencies.getValueAtPercentile(99) / 1000.0,
+                    latencies.getValueAtPercentile(99.9) / 1000.0,
+                    latencies.getMaxValue() / 1000.0,
+                    statuses.isEmpty() ? "" : statuses);
+        }
+    }
+}
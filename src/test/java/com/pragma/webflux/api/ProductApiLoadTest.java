@@ -0,0 +1,239 @@
+package com.pragma.webflux.api;
+
+import com.pragma.webflux.api.OpenModelLoadGenerator.Operation;
+import com.pragma.webflux.api.OpenModelLoadGenerator.Result;
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Product;
+import com.pragma.webflux.api.model.ProductBulkResult;
+import com.pragma.webflux.api.service.IProductService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Mixed list / get / create / edit / upload workload at a fixed request rate against the
+ * application running on an embedded mongod ({@code loadtest} profile), reported
+ * as HDR histograms in {@code target/loadtest}. Numbers are meant to be compared between
+ * builds on the same machine:
+ * <pre>
+ * mvn test -Ploadtest -Dloadtest.rps=500 -Dloadtest.duration=PT60S -Dloadtest.mix=list:30,get:40,create:10,edit:15,upload:5
+ * </pre>
+ * Other settings: {@code loadtest.warmUp}, {@code loadtest.products} preloaded,
+ * {@code loadtest.images} distinct upload contents, {@code loadtest.connections},
+ * {@code loadtest.maxInFlight} and {@code loadtest.reports}.
+ */
+@Tag("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("loadtest")
+class ProductApiLoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductApiLoadTest.class);
+    private static final int BULK_SIZE = 500;
+
+    @LocalServerPort
+    private int port;
+    @Autowired
+    private IProductService productService;
+    @Value("${api.endpoint}")
+    private String path;
+
+    private final List<String> ids = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong sequence = new AtomicLong();
+    private WebClient client;
+    private Category category;
+    private List<byte[]> images;
+
+    @Test
+    void mixedWorkload() {
+        int rate = Integer.getInteger("loadtest.rps", 200);
+        Duration warmUp = Duration.parse(System.getProperty("loadtest.warmUp", "PT10S"));
+        Duration duration = Duration.parse(System.getProperty("loadtest.duration", "PT30S"));
+        Path reports = Paths.get(System.getProperty("loadtest.reports", "target/loadtest"));
+        ConnectionProvider connections = ConnectionProvider.builder("loadtest")
+                .maxConnections(Integer.getInteger("loadtest.connections", 500))
+                .pendingAcquireMaxCount(-1)
+                .build();
+        client = WebClient.builder()
+                .baseUrl("http://localhost:" + port + path)
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connections)))
+                .build();
+        try {
+            category = seededCategory();
+            images = images(Integer.getInteger("loadtest.images", 256));
+            preload(Integer.getInteger("loadtest.products", 1000));
+
+            Map<String, Result> results = new OpenModelLoadGenerator(rate, warmUp, duration,
+                    Integer.getInteger("loadtest.maxInFlight", 2048))
+                    .run(operations(System.getProperty("loadtest.mix", "list:30,get:40,create:10,edit:15,upload:5")));
+
+            String summary = OpenModelLoadGenerator.report(results, reports);
+            LOG.info("{} rps for {} after {} of warm-up, reports in {}{}{}",
+                    rate, duration, warmUp, reports.toAbsolutePath(), System.lineSeparator(), summary);
+            assertTrue(results.values().stream().mapToLong(Result::requests).sum() > 0);
+        } finally {
+            connections.dispose();
+        }
+    }
+
+    private List<Operation> operations(String mix) {
+        Map<String, Supplier<Mono<Integer>>> calls = new LinkedHashMap<>();
+        calls.put("list", this::list);
+        calls.put("get", this::get);
+        calls.put("create", this::create);
+        calls.put("edit", this::edit);
+        calls.put("upload", this::upload);
+        List<Operation> operations = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] weighted = entry.trim().split(":");
+            Supplier<Mono<Integer>> call = calls.get(weighted[0]);
+            if (call == null || weighted.length != 2) {
+                throw new IllegalArgumentException("Unknown operation '" + entry + "', expected one of " + calls.keySet());
+            }
+            operations.add(new Operation(weighted[0], Integer.parseInt(weighted[1]), call));
+        }
+        return operations;
+    }
+
+    private Mono<Integer> list() {
+        return client.get()
+                .uri(uri -> uri.queryParam("limit", 20).build())
+                .accept(MediaType.APPLICATION_JSON)
+                .exchangeToMono(ProductApiLoadTest::status);
+    }
+
+    private Mono<Integer> get() {
+        return client.get()
+                .uri("{id}", randomId())
+                .accept(MediaType.APPLICATION_JSON)
+                .exchangeToMono(ProductApiLoadTest::status);
+    }
+
+    private Mono<Integer> create() {
+        return client.post()
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(newProduct())
+                .exchangeToMono(response -> {
+                    if (response.statusCode().is2xxSuccessful()) {
+                        response.headers().header("Location").forEach(ids::add);
+                    }
+                    return status(response);
+                });
+    }
+
+    private Mono<Integer> edit() {
+        return client.put()
+                .uri("{id}", randomId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(newProduct())
+                .exchangeToMono(ProductApiLoadTest::status);
+    }
+
+    private Mono<Integer> upload() {
+        MultipartBodyBuilder parts = new MultipartBodyBuilder();
+        parts.part("file", images.get(ThreadLocalRandom.current().nextInt(images.size())))
+                .filename("load-test.png")
+                .contentType(MediaType.IMAGE_PNG);
+        return client.post()
+                .uri("upload/{id}", randomId())
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(parts.build()))
+                .exchangeToMono(ProductApiLoadTest::status);
+    }
+
+    private static Mono<Integer> status(ClientResponse response) {
+        return response.releaseBody().thenReturn(response.rawStatusCode());
+    }
+
+    private String randomId() {
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+
+    private Product newProduct() {
+        long n = sequence.incrementAndGet();
+        return new Product("Load test product " + n, 1 + (n % 5000) / 10.0, category);
+    }
+
+    /**
+     * The seeding runner starts with the application but completes asynchronously.
+     */
+    private Category seededCategory() {
+        return Mono.defer(() -> productService.findCategoryByName("Electronics"))
+                .repeatWhenEmpty(100, repeat -> repeat.delayElements(Duration.ofMillis(100)))
+                .blockOptional(Duration.ofSeconds(30))
+                .orElseThrow(() -> new IllegalStateException("The seed categories were not created"));
+    }
+
+    private void preload(int products) {
+        Flux.range(0, products)
+                .map(i -> newProduct())
+                .buffer(BULK_SIZE)
+                .concatMap(batch -> client.post()
+                        .uri("bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(batch)
+                        .retrieve()
+                        .bodyToFlux(ProductBulkResult.class))
+                .filter(result -> ProductBulkResult.CREATED.equals(result.getStatus()))
+                .doOnNext(result -> ids.add(result.getId()))
+                .blockLast(Duration.ofMinutes(5));
+        assertFalse(ids.isEmpty(), "No product was preloaded");
+    }
+
+    /**
+     * Distinct contents, since the image store keeps a single copy of identical uploads.
+     */
+    private static List<byte[]> images(int count) {
+        List<byte[]> images = new ArrayList<>(count);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < count; i++) {
+            BufferedImage image = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < image.getHeight(); y += 8) {
+                for (int x = 0; x < image.getWidth(); x += 8) {
+                    image.setRGB(x, y, random.nextInt(0x1000000));
+                }
+            }
+            try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+                ImageIO.write(image, "png", out);
+                images.add(out.toByteArray());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return images;
+    }
+}
@@ -1,32 +1,59 @@
 package com.pragma.webflux.api;
 
+import com.pragma.webflux.api.model.Category;
 import com.pragma.webflux.api.model.Product;
+import com.pragma.webflux.api.model.ProductBulkDelete;
+import com.pragma.webflux.api.model.ProductBulkResult;
+import com.pragma.webflux.api.model.ProductPage;
 import com.pragma.webflux.api.service.IProductService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.BodyInserters;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 @AutoConfigureWebTestClient
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+        properties = {"images.upload.max-file-size=1KB", "images.upload.max-parts=6"})
 class SpringWebfluxApiRestApplicationMockTests {
 
     @Autowired
     private WebTestClient client;
     @Autowired
     private IProductService productService;
+    @Autowired
+    private ReactiveMongoTemplate mongoTemplate;
     @Value("${api.endpoint}")
     private String path;
+    @Value("${api.categories.endpoint}")
+    private String categoriesPath;
     private static final String PATH_VARIABLE="{id}";
 
     @Test
@@ -52,6 +79,90 @@ class SpringWebfluxApiRestApplicationMockTests {
         ;
     }
 
+    @Test
+    void canStreamAllProducts() {
+        client
+                .get()
+                .uri(path)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBodyList(Product.class)
+                .consumeWith(
+                        response -> {
+                            List<Product> products = response.getResponseBody();
+                            assertNotNull(products);
+                            assertTrue(products.size() > 0);
+                        }
+                );
+    }
+
+    @Test
+    void canListProductsByPage() {
+        ProductPage first = client
+                .get()
+                .uri(path + "?limit={limit}&sort={sort}", 2, "price")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ProductPage.class)
+                .returnResult()
+                .getResponseBody();
+        assertNotNull(first);
+        assertEquals(2, first.getContent().size());
+        assertNotNull(first.getNext());
+
+        client
+                .get()
+                .uri(path + "?limit={limit}&sort={sort}&after={after}", 2, "price", first.getNext())
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ProductPage.class)
+                .consumeWith(
+                        response -> {
+                            ProductPage second = response.getResponseBody();
+                            assertNotNull(second);
+                            assertEquals(2, second.getContent().size());
+                            assertTrue(second.getContent().get(0).getPrice() >= first.getContent().get(1).getPrice());
+                            assertNotEquals(first.getContent().get(1).getId(), second.getContent().get(0).getId());
+                        }
+                );
+    }
+
+    @Test
+    void pagesByPriceAcrossMissingPrices() {
+        Category garden = mongoTemplate.insert(new Category("Garden tools")).block();
+        assert garden != null;
+        for (Double price : Arrays.asList(5.0, null, 1.0, null, 3.0)) {
+            productService.save(new Product("Tool " + price, price, garden)).block();
+        }
+
+        List<Double> prices = new ArrayList<>();
+        try {
+            String next = null;
+            do {
+                ProductPage page = client
+                        .get()
+                        .uri(path + "?limit=2&sort=price&category={category}" + (next == null ? "" : "&after=" + next), garden.getId())
+                        .exchange()
+                        .expectStatus().isOk()
+                        .expectBody(ProductPage.class)
+                        .returnResult()
+                        .getResponseBody();
+                assertNotNull(page);
+                page.getContent().forEach(p -> prices.add(p.getPrice()));
+                next = page.getNext();
+            } while (next != null);
+        } finally {
+            // other tests page through every product and expect prices
+            productService.deleteAll(null, garden.getId()).block();
+        }
+
+        assertEquals(Arrays.asList(null, null, 1.0, 3.0, 5.0), prices);
+    }
+
     @Test
     void canGetProduct() {
         String name = "TV Panasonic Pantalla LCD";
@@ -71,6 +182,46 @@ class SpringWebfluxApiRestApplicationMockTests {
 
     }
 
+    @Test
+    void answersConditionalGetsWithNotModified() {
+        Product p = productService.save(new Product("Nikon Camara", 320.0,
+                productService.findCategoryByName("Electronics").block())).block();
+        assert p != null;
+
+        for (String products : List.of(path, "/api/products/")) {
+            String etag = client
+                    .get()
+                    .uri(products + PATH_VARIABLE + "?fields=name", Collections.singletonMap("id", p.getId()))
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectHeader().exists(HttpHeaders.LAST_MODIFIED)
+                    .expectBody()
+                    .jsonPath("$.name").isEqualTo("NIKON CAMARA")
+                    .jsonPath("$.version").doesNotExist()
+                    .returnResult()
+                    .getResponseHeaders()
+                    .getETag();
+            assertNotNull(etag);
+
+            client
+                    .get()
+                    .uri(products + PATH_VARIABLE + "?fields=name", Collections.singletonMap("id", p.getId()))
+                    .ifNoneMatch(etag)
+                    .exchange()
+                    .expectStatus().isNotModified()
+                    .expectHeader().valueEquals(HttpHeaders.ETAG, etag)
+                    .expectBody().isEmpty();
+            client
+                    .get()
+                    .uri(products + PATH_VARIABLE, Collections.singletonMap("id", p.getId()))
+                    .ifNoneMatch(etag)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody()
+                    .jsonPath("$.version").isEqualTo(p.getVersion());
+        }
+    }
+
     @Test
     void canCreateProduct() {
         Mono<Product> p = Mono.just(
@@ -156,6 +307,92 @@ class SpringWebfluxApiRestApplicationMockTests {
                 );
     }
 
+    @Test
+    void rejectsUpdateWithoutNameOrPrice() {
+        Product actualProduct = productService.findByName("Apple iPod").block();
+        assert actualProduct != null;
+        Product replacement = new Product();
+        replacement.setCategory(actualProduct.getCategory());
+        for (String products : List.of(path, "/api/products/")) {
+            client
+                    .put()
+                    .uri(products + PATH_VARIABLE, Collections.singletonMap("id", actualProduct.getId()))
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(Mono.just(replacement), Product.class)
+                    .exchange()
+                    .expectStatus().isBadRequest();
+        }
+
+        Product stored = productService.findById(actualProduct.getId()).block();
+        assert stored != null;
+        assertEquals("Apple iPod", stored.getName());
+        assertEquals(actualProduct.getPrice(), stored.getPrice());
+    }
+
+    @Test
+    void canPatchProduct() {
+        String name = "Sony Notebook";
+        Product actualProduct = productService.findByName(name).block();
+        Product changes = new Product();
+        changes.setPrice(999.0);
+        assert actualProduct != null;
+        client
+                .patch()
+                .uri(path + PATH_VARIABLE, Collections.singletonMap("id", actualProduct.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(changes), Product.class)
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.name").isEqualTo(name)
+                .jsonPath("$.price").isEqualTo(999.0)
+                .jsonPath("$.category.name").isEqualTo(actualProduct.getCategory().getName());
+    }
+
+    @Test
+    void rejectsUpdateOfStaleVersion() {
+        Product actualProduct = productService.findByName("Apple iPod").block();
+        assert actualProduct != null;
+        Product changes = new Product();
+        changes.setPrice(50.0);
+        changes.setVersion(actualProduct.getVersion() + 1);
+        client
+                .patch()
+                .uri(path + PATH_VARIABLE, Collections.singletonMap("id", actualProduct.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(changes), Product.class)
+                .exchange()
+                .expectStatus().isEqualTo(409);
+    }
+
+    @Test
+    void rejectsPatchWithAnEmptyName() {
+        Product actualProduct = productService.findByName("Apple iPod").block();
+        assert actualProduct != null;
+        client
+                .patch()
+                .uri(path + PATH_VARIABLE, Collections.singletonMap("id", actualProduct.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"name\":\"\"}")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0]").value(message -> assertTrue(((String) message).startsWith("Field: 'name'")));
+        client
+                .patch()
+                .uri("/api/products/" + PATH_VARIABLE, Collections.singletonMap("id", actualProduct.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"name\":\"\"}")
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        Product stored = productService.findById(actualProduct.getId()).block();
+        assert stored != null;
+        assertEquals("Apple iPod", stored.getName());
+    }
+
     @Test
     void canDeleteProduct() {
         String name = "HP Notebook Omen 17";
@@ -179,5 +416,371 @@ class SpringWebfluxApiRestApplicationMockTests {
 
     }
 
+    @Test
+    void canDeleteProductsById() {
+        Product first = productService.save(new Product("Discontinued 1", 10.0,
+                productService.findCategoryByName("Sports").block())).block();
+        Product second = productService.save(new Product("Discontinued 2", 10.0,
+                productService.findCategoryByName("Sports").block())).block();
+        assert first != null && second != null;
+        ProductBulkDelete filter = new ProductBulkDelete();
+        filter.setIds(List.of(first.getId(), second.getId()));
+
+        client
+                .post()
+                .uri(path + "bulk/delete")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(filter), ProductBulkDelete.class)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.deleted").isEqualTo(2);
+    }
+
+    @Test
+    void rejectsBulkDeletesWithoutFilter() {
+        client
+                .post()
+                .uri(path + "bulk/delete")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"ids\":null}")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Either ids or categoryId is required");
+    }
+
+    @Test
+    void reportsEachItemOfABulkCreation() {
+        Category computing = productService.findCategoryByName("Computing").block();
+        Product existing = productService.findByName("Sony Camara HD Digital").block();
+        assert existing != null;
+        Product duplicate = new Product("Sony Camara HD Digital", 1.0, computing);
+        duplicate.setId(existing.getId());
+        List<Product> products = List.of(
+                new Product("Lenovo Notebook", 650.0, computing),
+                new Product("", 10.0, computing),
+                duplicate,
+                new Product("Dell Notebook", 720.0, computing));
+
+        List<ProductBulkResult> results = client
+                .post()
+                .uri(path + "bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(Flux.fromIterable(products), Product.class)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBodyList(ProductBulkResult.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertNotNull(results);
+        Map<Long, ProductBulkResult> byIndex = results.stream()
+                .collect(Collectors.toMap(ProductBulkResult::getIndex, Function.identity()));
+        assertEquals(Set.of(0L, 1L, 2L, 3L), byIndex.keySet());
+        assertEquals(ProductBulkResult.CREATED, byIndex.get(0L).getStatus());
+        assertEquals(ProductBulkResult.ERROR, byIndex.get(1L).getStatus());
+        assertTrue(byIndex.get(1L).getErrors().get(0).startsWith("Field: 'name'"));
+        assertEquals(ProductBulkResult.ERROR, byIndex.get(2L).getStatus());
+        assertTrue(byIndex.get(2L).getErrors().get(0).contains("duplicate key"));
+        assertEquals(ProductBulkResult.CREATED, byIndex.get(3L).getStatus());
+        assertEquals("Dell Notebook", Objects.requireNonNull(productService.findById(byIndex.get(3L).getId()).block()).getName());
+        assertEquals(existing.getPrice(), Objects.requireNonNull(productService.findById(existing.getId()).block()).getPrice());
+    }
+
+    @Test
+    void canCreateAndRenameCategories() {
+        Category garden = client
+                .post()
+                .uri(categoriesPath)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Category("Garden"))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(Category.class)
+                .returnResult()
+                .getResponseBody();
+        assert garden != null;
+        Product rake = productService.save(new Product("Rake", 10.0, garden)).block();
+        assert rake != null;
+
+        client
+                .post()
+                .uri(categoriesPath)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Category("Garden"))
+                .exchange()
+                .expectStatus().isEqualTo(409);
+        client
+                .put()
+                .uri(categoriesPath + PATH_VARIABLE, Collections.singletonMap("id", garden.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("name", "Outdoor"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.name").isEqualTo("Outdoor");
+
+        client
+                .get()
+                .uri(path + PATH_VARIABLE, Collections.singletonMap("id", rake.getId()))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.category.name").isEqualTo("Outdoor")
+                .jsonPath("$.version").isEqualTo(rake.getVersion() + 1);
+        client
+                .get()
+                .uri(categoriesPath)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Category.class)
+                .consumeWith(response -> assertTrue(Objects.requireNonNull(response.getResponseBody())
+                        .stream().anyMatch(c -> "Outdoor".equals(c.getName()))));
+        client
+                .put()
+                .uri(categoriesPath + PATH_VARIABLE, Collections.singletonMap("id", "62b9f1c4e4b0a1a2b3c4d5e6"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("name", "Nowhere"))
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void rejectsProductsOfUnknownCategories() {
+        Category unknown = new Category("Electronics");
+        unknown.setId("62b9f1c4e4b0a1a2b3c4d5e6");
+        Product p = new Product("TV Samsung", 300.0, unknown);
+
+        client
+                .post()
+                .uri(path)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(p)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$[0]").isEqualTo("Field: 'category.id', unknown category");
+        client
+                .post()
+                .uri("/api/products")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(p)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.errors[0]").isEqualTo("Field: 'category.id', unknown category");
+    }
+
+    @Test
+    void acceptsCategoriesCreatedByOtherInstances() {
+        Category toys = mongoTemplate.insert(new Category("Toys")).block();
+        assert toys != null;
+        Category reference = new Category("Toys");
+        reference.setId(toys.getId());
+
+        client
+                .post()
+                .uri(path)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Product("Kite", 15.0, reference))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody()
+                .jsonPath("$.category.name").isEqualTo("Toys");
+    }
+
+    @Test
+    void keepsTheImagesOfConcurrentUploads() {
+        Product p = productService.save(new Product("Drone", 500.0,
+                productService.findCategoryByName("Electronics").block())).block();
+        assert p != null;
+        Product stale = new Product(p);
+
+        client
+                .post()
+                .uri(path + "upload/" + PATH_VARIABLE, Collections.singletonMap("id", p.getId()))
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(image("file", "front.jpg", "front")))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody()
+                .jsonPath("$.imageIds.length()").isEqualTo(1);
+        Product saved = productService.addImage(stale,
+                Flux.just(new DefaultDataBufferFactory().wrap("back".getBytes(StandardCharsets.UTF_8))), "back.jpg").block();
+
+        assertNotNull(saved);
+        assertEquals(2, saved.getImageIds().size());
+        assertEquals(p.getVersion() + 2, saved.getVersion());
+    }
+
+    @Test
+    void canUploadImagesWithinTheLimits() {
+        Product p = productService.findByName("Bianchi Bicicleta").block();
+        assert p != null;
+        MultipartBodyBuilder form = new MultipartBodyBuilder();
+        form.part("note", "front view");
+        form.part("file", "front".getBytes(StandardCharsets.UTF_8)).filename("front.jpg").contentType(MediaType.IMAGE_JPEG);
+
+        client
+                .post()
+                .uri(path + "upload/" + PATH_VARIABLE, Collections.singletonMap("id", p.getId()))
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(form.build()))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody()
+                .jsonPath("$.id").isEqualTo(p.getId())
+                .jsonPath("$.imageIds.length()").isEqualTo(p.getImageIds().size() + 1);
+        client
+                .post()
+                .uri(path + "upload/" + PATH_VARIABLE, Collections.singletonMap("id", p.getId()))
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData("note", "no file"))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void canCreateProductWithImageAndOtherFields() {
+        Category sports = productService.findCategoryByName("Sports").block();
+        assert sports != null;
+        MultipartBodyBuilder form = new MultipartBodyBuilder();
+        form.part("name", "Skateboard");
+        form.part("price", "80.5");
+        form.part("category.id", sports.getId());
+        form.part("category.name", sports.getName());
+        form.part("file", "deck".getBytes(StandardCharsets.UTF_8)).filename("deck.png").contentType(MediaType.IMAGE_PNG);
+
+        client
+                .post()
+                .uri(path + "uploadWithImage")
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(form.build()))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody()
+                .jsonPath("$.id").isNotEmpty()
+                .jsonPath("$.name").isEqualTo("Skateboard")
+                .jsonPath("$.price").isEqualTo(80.5)
+                .jsonPath("$.category.name").isEqualTo(sports.getName())
+                .jsonPath("$.imageIds.length()").isEqualTo(1);
+    }
+
+    @Test
+    void rejectsOversizedFiles() {
+        Product p = productService.findByName("Bianchi Bicicleta").block();
+        assert p != null;
+        byte[] content = new byte[2048];
+        MultipartBodyBuilder form = new MultipartBodyBuilder();
+        form.part("file", content).filename("large.jpg").contentType(MediaType.IMAGE_JPEG);
+
+        client
+                .post()
+                .uri(path + "upload/" + PATH_VARIABLE, Collections.singletonMap("id", p.getId()))
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(form.build()))
+                .exchange()
+                .expectStatus().isEqualTo(413);
+        client
+                .post()
+                .uri("/api/products/upload/" + PATH_VARIABLE, Collections.singletonMap("id", p.getId()))
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(form.build()))
+                .exchange()
+                .expectStatus().isEqualTo(413);
+        assertEquals(p.getImageIds(), productService.findById(p.getId()).block().getImageIds());
+        form.part("name", "Large");
+        client
+                .post()
+                .uri(path + "uploadWithImage")
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(form.build()))
+                .exchange()
+                .expectStatus().isEqualTo(413);
+    }
+
+    @Test
+    void rejectsTooManyParts() {
+        MultipartBodyBuilder form = new MultipartBodyBuilder();
+        for (int i = 0; i < 8; i++) {
+            form.part("field" + i, "value");
+        }
+
+        client
+                .post()
+                .uri(path + "uploadWithImage")
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(form.build()))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class)
+                .consumeWith(response -> assertTrue(Objects.requireNonNull(response.getResponseBody())
+                        .contains("Too many parts")));
+    }
+
+    @Test
+    void servesImagesWithRangesAndValidators() {
+        Product p = productService.findByName("Sony Notebook").block();
+        assert p != null;
+        Product saved = client
+                .post()
+                .uri(path + "upload/" + PATH_VARIABLE, Collections.singletonMap("id", p.getId()))
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(image("file", "keyboard.jpg", "0123456789")))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(Product.class)
+                .returnResult()
+                .getResponseBody();
+        assert saved != null;
+        Set<String> added = new HashSet<>(saved.getImageIds());
+        added.removeAll(p.getImageIds());
+        String image = path + PATH_VARIABLE + "/images/{imageId}";
+        Map<String, String> variables = Map.of("id", p.getId(), "imageId", added.iterator().next());
+
+        String etag = client
+                .get()
+                .uri(image, variables)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().cacheControl(CacheControl.maxAge(Duration.ofDays(365)).cachePublic())
+                .expectHeader().contentType(MediaType.IMAGE_JPEG)
+                .expectBody(String.class).isEqualTo("0123456789")
+                .returnResult()
+                .getResponseHeaders()
+                .getETag();
+        assertNotNull(etag);
+
+        client
+                .get()
+                .uri(image, variables)
+                .header(HttpHeaders.RANGE, "bytes=2-5")
+                .exchange()
+                .expectStatus().isEqualTo(206)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes 2-5/10")
+                .expectBody(String.class).isEqualTo("2345");
+        client
+                .get()
+                .uri(image, variables)
+                .ifNoneMatch(etag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+        client
+                .get()
+                .uri(image, Map.of("id", p.getId(), "imageId", "missing.jpg"))
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    private static MultiValueMap<String, HttpEntity<?>> image(String name, String filename, String content) {
+        MultipartBodyBuilder builder = new MultipartBodyBuilder();
+        builder.part(name, content.getBytes(StandardCharsets.UTF_8))
+                .filename(filename)
+                .contentType(MediaType.IMAGE_JPEG);
+        return builder.build();
+    }
 
 }
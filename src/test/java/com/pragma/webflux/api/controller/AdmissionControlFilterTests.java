@@ -0,0 +1,166 @@
+package com.pragma.webflux.api.controller;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControlFilterTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private AdmissionControlFilter filter(int burst, int concurrency) {
+        return new AdmissionControlFilter(registry, new ApiClients("X-API-Key", Set.of("partner"), Set.of()), true,
+                1, burst, 100, concurrency, concurrency, concurrency, 1000);
+    }
+
+    private static MockServerWebExchange get(String path, String apiKey) {
+        MockServerHttpRequest.BaseBuilder<?> request = MockServerHttpRequest.get(path)
+                .remoteAddress(new InetSocketAddress("10.0.0.1", 4000));
+        if (apiKey != null) {
+            request.header("X-API-Key", apiKey);
+        }
+        return MockServerWebExchange.from(request);
+    }
+
+    private static HttpStatus status(AdmissionControlFilter filter, MockServerWebExchange exchange) {
+        filter.filter(exchange, e -> Mono.empty()).block();
+        return exchange.getResponse().getStatusCode();
+    }
+
+    @Test
+    void throttlesEachClientSeparately() {
+        AdmissionControlFilter filter = filter(2, 10);
+
+        assertNull(status(filter, get("/api/v2/products/1", null)));
+        assertNull(status(filter, get("/api/v2/products/1", null)));
+        MockServerWebExchange rejected = get("/api/v2/products/1", null);
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, status(filter, rejected));
+        assertEquals("1", rejected.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, status(filter, get("/api/v2/products/1", "unknown")));
+        assertNull(status(filter, get("/api/v2/products/1", "partner")));
+        assertNull(status(filter, get("/actuator/health", null)));
+        assertEquals(2, registry.get(AdmissionControlFilter.REJECTED).tag("limiter", "rate").counter().count());
+    }
+
+    @Test
+    void readsTheForwardedAddressFromTrustedProxiesOnly() {
+        ApiClients clients = new ApiClients("X-API-Key", Set.of("partner"), Set.of("10.0.0.1", "10.0.0.2"));
+
+        assertEquals("ip:203.0.113.7", clients.of(forwarded("10.0.0.1", "198.51.100.9, 203.0.113.7")));
+        assertEquals("ip:203.0.113.7", clients.of(forwarded("10.0.0.1", "198.51.100.9, 203.0.113.7, 10.0.0.2")));
+        assertEquals("ip:10.0.0.3", clients.of(forwarded("10.0.0.3", "203.0.113.7")));
+        assertEquals("ip:10.0.0.1", clients.of(forwarded("10.0.0.1", " ")));
+        assertEquals("key:partner", clients.of(MockServerHttpRequest.get("/api/v2/products/1")
+                .remoteAddress(new InetSocketAddress("10.0.0.3", 4000))
+                .header("X-API-Key", "partner")
+                .build()));
+    }
+
+    private static ServerHttpRequest forwarded(String proxy, String forwardedFor) {
+        return MockServerHttpRequest.get("/api/v2/products/1")
+                .remoteAddress(new InetSocketAddress(proxy, 4000))
+                .header(ApiClients.FORWARDED_FOR, forwardedFor)
+                .header("X-API-Key", "unknown")
+                .build();
+    }
+
+    @Test
+    void limitsWritesInFlight() {
+        AdmissionControlFilter filter = filter(100, 4);
+        Sinks.Empty<Void> slow = Sinks.empty();
+        for (int i = 0; i < 4; i++) {
+            filter.filter(MockServerWebExchange.from(MockServerHttpRequest.post("/api/products/")), e -> slow.asMono()).subscribe();
+        }
+
+        MockServerWebExchange rejected = MockServerWebExchange.from(MockServerHttpRequest.post("/api/products/"));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, status(filter, rejected));
+        assertEquals("1", rejected.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertNull(status(filter, get("/api/products/1", null)));
+        assertEquals(4, registry.get("admission.concurrency.in.flight").gauge().value());
+
+        slow.tryEmitEmpty();
+        assertEquals(0, registry.get("admission.concurrency.in.flight").gauge().value());
+        assertNull(status(filter, MockServerWebExchange.from(MockServerHttpRequest.post("/api/products/"))));
+    }
+
+    @Test
+    void takesNoPermitForAChainThatIsNeverSubscribed() {
+        AdmissionControlFilter filter = filter(100, 1);
+
+        filter.filter(MockServerWebExchange.from(MockServerHttpRequest.post("/api/products/")), e -> Mono.empty());
+
+        assertEquals(0, registry.get("admission.concurrency.in.flight").gauge().value());
+        assertNull(status(filter, MockServerWebExchange.from(MockServerHttpRequest.post("/api/products/"))));
+    }
+
+    @Test
+    void refillsBucketsAtTheConfiguredRate() {
+        AtomicLong now = new AtomicLong();
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 5, 100, now::get);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire("a"));
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.tryAcquire("a"));
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(0, limiter.tryAcquire("a"));
+        assertTrue(limiter.tryAcquire("a") > 0);
+    }
+
+    @Test
+    void dropsFullBucketsWhenThereAreTooManyClients() {
+        AtomicLong now = new AtomicLong();
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 5, 2, now::get);
+        limiter.tryAcquire("a");
+        limiter.tryAcquire("b");
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        limiter.tryAcquire("c");
+
+        assertEquals(1, limiter.clients());
+    }
+
+    @Test
+    void adaptsTheLimitToLatency() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 2, 100, 1000);
+        long fast = TimeUnit.MILLISECONDS.toNanos(5);
+
+        for (int i = 0; i < 20; i++) {
+            saturate(limiter, fast);
+        }
+        int grown = limiter.limit();
+        assertTrue(grown > 10);
+
+        for (int i = 0; i < 20; i++) {
+            saturate(limiter, fast * 10);
+        }
+        assertTrue(limiter.limit() < grown);
+        assertTrue(limiter.limit() >= 2);
+        assertEquals(0, limiter.inFlight());
+    }
+
+    private static void saturate(AdaptiveConcurrencyLimiter limiter, long latency) {
+        int admitted = 0;
+        while (limiter.tryAcquire()) {
+            admitted++;
+        }
+        for (int i = 0; i < admitted; i++) {
+            limiter.release(latency, true);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.pragma.webflux.api.controller;
+
+import com.pragma.webflux.api.dao.EmbeddedMongo;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyFilterTests {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private IdempotencyFilter filter(ReactiveMongoTemplate template) {
+        return new IdempotencyFilter(template, new ApiClients("X-API-Key", Set.of("partner"), Set.of()), true,
+                "/api/v2/products/", Duration.ofHours(1), DataSize.ofMegabytes(1), DataSize.ofKilobytes(1), template != null, Duration.ofMinutes(1));
+    }
+
+    private static MockServerWebExchange post(String path, String key) {
+        return MockServerWebExchange.from(MockServerHttpRequest.post(path).header(IdempotencyFilter.HEADER, key));
+    }
+
+    private Mono<Void> create(ServerWebExchange exchange, HttpStatus status) {
+        int call = calls.incrementAndGet();
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(status);
+        response.getHeaders().setLocation(URI.create("/api/v2/products/" + call));
+        return response.writeWith(Mono.fromSupplier(() ->
+                response.bufferFactory().wrap(("{\"id\":\"" + call + "\"}").getBytes(StandardCharsets.UTF_8))));
+    }
+
+    private WebFilterChain created() {
+        return exchange -> create(exchange, HttpStatus.CREATED);
+    }
+
+    @Test
+    void replaysTheRecordedResponse() {
+        IdempotencyFilter filter = filter(null);
+        MockServerWebExchange first = post("/api/v2/products/", "k1");
+        MockServerWebExchange retry = post("/api/v2/products/", "k1");
+
+        filter.filter(first, created()).block();
+        filter.filter(retry, created()).block();
+
+        assertEquals(1, calls.get());
+        assertEquals(HttpStatus.CREATED, retry.getResponse().getStatusCode());
+        assertEquals(URI.create("/api/v2/products/1"), retry.getResponse().getHeaders().getLocation());
+        assertEquals("{\"id\":\"1\"}", retry.getResponse().getBodyAsString().block());
+        assertEquals("true", retry.getResponse().getHeaders().getFirst(IdempotencyFilter.REPLAYED));
+        assertNull(first.getResponse().getHeaders().getFirst(IdempotencyFilter.REPLAYED));
+    }
+
+    @Test
+    void retriesWaitForTheRequestInFlight() {
+        IdempotencyFilter filter = filter(null);
+        Sinks.Empty<Void> saved = Sinks.empty();
+        WebFilterChain slow = exchange -> saved.asMono().then(create(exchange, HttpStatus.CREATED));
+        MockServerWebExchange retry = post("/api/v2/products/upload/1", "k1");
+
+        filter.filter(post("/api/v2/products/upload/1", "k1"), slow).subscribe();
+        Mono<Void> waiting = filter.filter(retry, slow);
+        saved.tryEmitEmpty();
+        waiting.block(Duration.ofSeconds(5));
+
+        assertEquals(1, calls.get());
+        assertEquals("{\"id\":\"1\"}", retry.getResponse().getBodyAsString().block());
+    }
+
+    @Test
+    void recordsTheResponseOfACancelledRequest() {
+        IdempotencyFilter filter = filter(null);
+        Sinks.Empty<Void> saved = Sinks.empty();
+        WebFilterChain slow = exchange -> saved.asMono().then(create(exchange, HttpStatus.CREATED));
+        MockServerWebExchange retry = post("/api/v2/products/", "k1");
+
+        filter.filter(post("/api/v2/products/", "k1"), slow).subscribe().dispose();
+        saved.tryEmitEmpty();
+        filter.filter(retry, slow).block(Duration.ofSeconds(5));
+
+        assertEquals(1, calls.get());
+        assertEquals("{\"id\":\"1\"}", retry.getResponse().getBodyAsString().block());
+        assertEquals("true", retry.getResponse().getHeaders().getFirst(IdempotencyFilter.REPLAYED));
+    }
+
+    @Test
+    void runsAgainAfterAnError() {
+        IdempotencyFilter filter = filter(null);
+        WebFilterChain failing = exchange -> {
+            calls.incrementAndGet();
+            return Mono.error(new IllegalStateException("disk full"));
+        };
+
+        assertThrows(IllegalStateException.class, () -> filter.filter(post("/api/v2/products/", "k1"), failing).block());
+        filter.filter(post("/api/v2/products/", "k1"), created()).block();
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void runsAgainForOtherKeysClientsAndServerErrors() {
+        IdempotencyFilter filter = filter(null);
+        WebFilterChain failing = exchange -> create(exchange, HttpStatus.SERVICE_UNAVAILABLE);
+
+        filter.filter(post("/api/products", "k1"), created()).block();
+        filter.filter(post("/api/products", "k2"), created()).block();
+        filter.filter(MockServerWebExchange.from(MockServerHttpRequest.post("/api/products")
+                .header(IdempotencyFilter.HEADER, "k1").header("X-API-Key", "partner")), created()).block();
+        filter.filter(post("/api/products", "k3"), failing).block();
+        filter.filter(post("/api/products", "k3"), failing).block();
+        filter.filter(post("/api/v2/products/bulk", "k1"), created()).block();
+
+        assertEquals(6, calls.get());
+    }
+
+    @Test
+    void rejectsOverlongKeys() {
+        MockServerWebExchange exchange = post("/api/v2/products/", new String(new char[256]).replace('\0', 'k'));
+
+        filter(null).filter(exchange, created()).block();
+
+        assertEquals(HttpStatus.BAD_REQUEST, exchange.getResponse().getStatusCode());
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    void sharesKeysBetweenInstancesThroughMongo() {
+        ReactiveMongoTemplate template = EmbeddedMongo.template();
+        MockServerWebExchange retry = post("/api/v2/products/uploadWithImage", "k1");
+
+        filter(template).filter(post("/api/v2/products/uploadWithImage", "k1"), created()).block();
+        filter(template).filter(retry, created()).block();
+
+        assertEquals(1, calls.get());
+        assertEquals("{\"id\":\"1\"}", retry.getResponse().getBodyAsString().block());
+
+        template.insert(new Document("_id", "ip:unknown /api/v2/products/ k2")
+                .append("expiresAt", new Date()), IdempotencyFilter.COLLECTION).block();
+        MockServerWebExchange running = post("/api/v2/products/", "k2");
+        filter(template).filter(running, created()).block();
+
+        assertEquals(HttpStatus.CONFLICT, running.getResponse().getStatusCode());
+        assertEquals("1", running.getResponse().getHeaders().getFirst("Retry-After"));
+        assertEquals(1, calls.get());
+    }
+}
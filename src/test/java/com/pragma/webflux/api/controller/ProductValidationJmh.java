@@ -0,0 +1,64 @@
+package com.pragma.webflux.api.controller;
+
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Product;
+import com.pragma.webflux.api.service.CategoryRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code BeanPropertyBindingResult} + {@code Validator.validate} path that
+ * {@link ProductHandler} runs for every created product.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProductValidationJmh {
+
+    private LocalValidatorFactoryBean validator;
+    private ProductHandler handler;
+    private Product valid;
+    private Product invalid;
+
+    @Setup
+    public void setUp() {
+        validator = new LocalValidatorFactoryBean();
+        validator.afterPropertiesSet();
+        handler = new ProductHandler();
+        ReflectionTestUtils.setField(handler, "validator", validator);
+
+        Category category = new Category("Electronics");
+        category.setId("62b9f1c4e4b0a1a2b3c4d5e6");
+        CategoryRegistry categories = new CategoryRegistry(null);
+        categories.put(category);
+        ReflectionTestUtils.setField(handler, "categories", categories);
+        valid = new Product("Apple iPod", 46.89, category);
+        invalid = new Product("", null, new Category("Electronics"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        validator.close();
+    }
+
+    @Benchmark
+    public List<String> validProduct() {
+        return handler.validate(valid).block();
+    }
+
+    @Benchmark
+    public List<String> invalidProduct() {
+        return handler.validate(invalid).block();
+    }
+}
@@ -0,0 +1,81 @@
+package com.pragma.webflux.api.controller;
+
+import com.pragma.webflux.api.model.Product;
+import com.pragma.webflux.api.service.ProductFields;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductValidatorsTests {
+
+    private static final Instant MODIFIED = Instant.parse("2022-07-01T10:15:30.250Z");
+
+    private Product product(Long version) {
+        Product product = new Product("Apple iPod", 46.89);
+        product.setId("1");
+        product.setVersion(version);
+        product.setLastModified(Date.from(MODIFIED));
+        return product;
+    }
+
+    @Test
+    void tagsEachFieldsetSeparately() {
+        ProductValidators full = ProductValidators.of(product(3L), Collections.emptySet());
+        ProductValidators projected = ProductValidators.of(product(3L), ProductFields.parse("price,name"));
+
+        assertEquals("\"3\"", full.etag());
+        assertEquals("\"3;name,price\"", projected.etag());
+        assertEquals(projected.etag(), ProductValidators.of(product(3L), ProductFields.parse("name,price")).etag());
+        assertNotEquals(full.etag(), ProductValidators.of(product(4L), Collections.emptySet()).etag());
+        assertEquals(Instant.parse("2022-07-01T10:15:30Z"), full.lastModified());
+    }
+
+    @Test
+    void matchingEtagIsNotModified() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/api/v2/products/1")
+                .ifNoneMatch("\"3\""));
+
+        assertTrue(ProductValidators.of(product(3L), Collections.emptySet()).notModified(exchange));
+        assertEquals(HttpStatus.NOT_MODIFIED, exchange.getResponse().getStatusCode());
+    }
+
+    @Test
+    void staleEtagIsModifiedEvenIfNotModifiedSince() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/api/v2/products/1")
+                .ifNoneMatch("\"2\"")
+                .ifModifiedSince(MODIFIED.plusSeconds(60).toEpochMilli()));
+
+        assertFalse(ProductValidators.of(product(3L), Collections.emptySet()).notModified(exchange));
+    }
+
+    @Test
+    void comparesModificationTimeToTheSecond() {
+        ProductValidators validators = ProductValidators.of(product(3L), Collections.emptySet());
+
+        assertTrue(validators.notModified(MockServerWebExchange.from(MockServerHttpRequest.get("/api/v2/products/1")
+                .ifModifiedSince(Instant.parse("2022-07-01T10:15:30Z").toEpochMilli()))));
+        assertFalse(validators.notModified(MockServerWebExchange.from(MockServerHttpRequest.get("/api/v2/products/1")
+                .ifModifiedSince(Instant.parse("2022-07-01T10:15:29Z").toEpochMilli()))));
+    }
+
+    @Test
+    void productsWithoutValidatorsAreAlwaysModified() {
+        Product product = product(null);
+        product.setLastModified(null);
+        ProductValidators validators = ProductValidators.of(product, Collections.emptySet());
+        HttpHeaders headers = new HttpHeaders();
+        validators.addTo(headers);
+
+        assertTrue(headers.isEmpty());
+        assertFalse(validators.notModified(MockServerWebExchange.from(MockServerHttpRequest.get("/api/v2/products/1")
+                .ifNoneMatch("*"))));
+    }
+}
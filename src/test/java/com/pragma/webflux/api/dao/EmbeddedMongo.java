@@ -0,0 +1,53 @@
+package com.pragma.webflux.api.dao;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.MongodConfig;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A standalone mongod started by flapdoodle the first time a test or benchmark needs one,
+ * on a free port, and stopped with the JVM. Standalone means no change streams and no
+ * transactions, as with a single server in production.
+ */
+public final class EmbeddedMongo {
+
+    private static MongoClient client;
+
+    private EmbeddedMongo() {
+    }
+
+    public static synchronized MongoClient client() {
+        if (client == null) {
+            try {
+                int port = Network.getFreeServerPort();
+                MongodExecutable mongod = MongodStarter.getDefaultInstance().prepare(MongodConfig.builder()
+                        .version(Version.Main.V4_4)
+                        .net(new Net(port, Network.localhostIsIPv6()))
+                        .build());
+                mongod.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(mongod::stop, "embedded-mongo-stop"));
+                client = MongoClients.create("mongodb://localhost:" + port);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return client;
+    }
+
+    /**
+     * A template on a database of its own, so that tests sharing the server start empty.
+     */
+    public static ReactiveMongoTemplate template() {
+        return new ReactiveMongoTemplate(client(), "test-" + new ObjectId().toHexString());
+    }
+}
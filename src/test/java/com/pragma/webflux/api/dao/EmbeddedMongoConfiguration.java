@@ -0,0 +1,20 @@
+package com.pragma.webflux.api.dao;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * With the {@code loadtest} profile the application runs on the {@link EmbeddedMongo} server
+ * instead of connecting to {@code spring.data.mongodb.*}, the database name still comes from there.
+ */
+@Configuration(proxyBeanMethods = false)
+@Profile("loadtest")
+public class EmbeddedMongoConfiguration {
+
+    @Bean
+    public MongoClient embeddedMongoClient() {
+        return EmbeddedMongo.client();
+    }
+}
@@ -0,0 +1,90 @@
+package com.pragma.webflux.api.dao;
+
+import com.pragma.webflux.api.model.Product;
+import org.bson.types.ObjectId;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Map backed stand-in for {@link ProductRepository}, used by tests and benchmarks
+ * that must run without a Mongo server. Only the CRUD and name lookups are supported,
+ * any other repository method throws {@link UnsupportedOperationException}.
+ */
+public class InMemoryProductRepository implements InvocationHandler {
+
+    private final Map<String, Product> products = new ConcurrentHashMap<>();
+
+    public static ProductRepository create() {
+        return (ProductRepository) Proxy.newProxyInstance(
+                ProductRepository.class.getClassLoader(),
+                new Class<?>[]{ProductRepository.class},
+                new InMemoryProductRepository());
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "findAll":
+                if (args == null) {
+                    return Flux.fromIterable(products.values());
+                }
+                break;
+            case "findById":
+                if (args[0] instanceof String) {
+                    return Mono.justOrEmpty(products.get((String) args[0]));
+                }
+                break;
+            case "findByName":
+            case "getProduct":
+                return Flux.fromIterable(products.values())
+                        .filter(product -> args[0].equals(product.getName()))
+                        .next();
+            case "save":
+            case "insert":
+                if (args[0] instanceof Product) {
+                    return Mono.just(store((Product) args[0]));
+                }
+                break;
+            case "count":
+                if (args == null) {
+                    return Mono.just((long) products.size());
+                }
+                break;
+            case "delete":
+                return Mono.fromRunnable(() -> products.remove(((Product) args[0]).getId()));
+            case "deleteById":
+                if (args[0] instanceof String) {
+                    return Mono.fromRunnable(() -> products.remove((String) args[0]));
+                }
+                break;
+            case "deleteAll":
+                if (args == null) {
+                    return Mono.fromRunnable(products::clear);
+                }
+                break;
+            case "toString":
+                return "InMemoryProductRepository" + products.keySet();
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                break;
+        }
+        throw new UnsupportedOperationException(method.toString());
+    }
+
+    private Product store(Product product) {
+        if (product.getId() == null) {
+            product.setId(new ObjectId().toHexString());
+        }
+        products.put(product.getId(), product);
+        return product;
+    }
+}
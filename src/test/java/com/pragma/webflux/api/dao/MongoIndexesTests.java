@@ -0,0 +1,49 @@
+package com.pragma.webflux.api.dao;
+
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Product;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MongoIndexesTests {
+
+    @Test
+    void detectsNestedCollectionScan() {
+        Document explain = Document.parse("{queryPlanner: {winningPlan: {stage: 'SORT', inputStage: "
+                + "{stage: 'SUBPLAN', inputStage: {stage: 'OR', inputStages: [{stage: 'IXSCAN'}, {stage: 'COLLSCAN'}]}}}}}");
+
+        assertTrue(MongoIndexes.usesCollectionScan(explain));
+    }
+
+    @Test
+    void acceptsIndexedPlans() {
+        Document fetch = new Document("stage", "FETCH").append("inputStage", new Document("stage", "IXSCAN"));
+        Document explain = new Document("queryPlanner", new Document("winningPlan", fetch)
+                .append("rejectedPlans", Arrays.asList(new Document("stage", "COLLSCAN"))));
+
+        assertFalse(MongoIndexes.usesCollectionScan(explain));
+        assertFalse(MongoIndexes.usesCollectionScan(new Document()));
+    }
+
+    @Test
+    void ensuresTheIndexesBeforeStartupCompletes() {
+        ReactiveMongoTemplate template = EmbeddedMongo.template();
+
+        new MongoIndexes(template, MongoIndexes.DIAGNOSTICS_OFF, Duration.ofSeconds(5)).run(null);
+
+        List<String> products = template.indexOps(Product.class).getIndexInfo().map(IndexInfo::getName)
+                .collect(Collectors.toList()).block();
+        assertNotNull(products);
+        assertTrue(products.containsAll(Arrays.asList("name", "category_id_price_id", "price_id")));
+        assertTrue(template.indexOps(Category.class).getIndexInfo().any(IndexInfo::isUnique).block());
+    }
+}
@@ -0,0 +1,79 @@
+package com.pragma.webflux.api.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson (de)serialization of a product with its category and expanded images,
+ * with the same mapper defaults as the WebFlux codecs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProductJsonJmh {
+
+    private ObjectWriter writer;
+    private ObjectReader reader;
+    private Product product;
+    private List<Product> page;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+        writer = mapper.writerFor(Product.class);
+        reader = mapper.readerFor(Product.class);
+
+        Category category = new Category("Electronics");
+        category.setId("62b9f1c4e4b0a1a2b3c4d5e6");
+        product = new Product("TV Sony Bravia OLED 4K Ultra HD", 2255.89, category);
+        product.setId("62b9f1c4e4b0a1a2b3c4d5e7");
+        product.setCreateAt(new Date());
+        product.setVersion(3L);
+        product.setImages(new ArrayList<>());
+        for (int i = 0; i < 3; i++) {
+            String key = String.format("%064x", i) + ".jpg";
+            Image image = new Image(key);
+            image.getRenditions().put("thumbnail", String.format("%064x", i + 10) + ".jpg");
+            image.getRenditions().put("medium", String.format("%064x", i + 20) + ".jpg");
+            product.getImageIds().add(key);
+            product.getImages().add(image);
+        }
+        page = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            page.add(product);
+        }
+        json = writer.writeValueAsBytes(product);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return writer.writeValueAsBytes(product);
+    }
+
+    @Benchmark
+    public Product deserialize() throws IOException {
+        return reader.readValue(json);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] serializePageOf100() throws IOException {
+        return writer.forType(List.class).writeValueAsBytes(page);
+    }
+}
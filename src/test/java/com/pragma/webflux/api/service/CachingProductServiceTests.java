@@ -0,0 +1,116 @@
+package com.pragma.webflux.api.service;
+
+import com.pragma.webflux.api.dao.InMemoryProductRepository;
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingProductServiceTests {
+
+    private ProductServiceImpl delegate;
+    private ProductSearchIndex searchIndex;
+    private CachingProductService productService;
+
+    @BeforeEach
+    void setUp() {
+        delegate = new ProductServiceImpl(InMemoryProductRepository.create(), null, null, null, null);
+        searchIndex = new ProductSearchIndex(delegate);
+        productService = new CachingProductService(delegate, searchIndex, new CategoryRegistry(delegate), 100, Duration.ofMinutes(1), 10, Duration.ofMinutes(1));
+    }
+
+    @Test
+    void servesRepeatedReadsFromCache() {
+        Product p = productService.save(new Product("Apple iPod", 46.89, new Category("Electronics"))).block();
+        assert p != null;
+
+        productService.findById(p.getId()).block();
+        productService.findById(p.getId()).block();
+
+        assertEquals(2, productService.stats().get("productsById").hitCount());
+    }
+
+    @Test
+    void neverServesStaleProductAfterSave() {
+        Product p = productService.save(new Product("Apple iPod", 46.89, new Category("Electronics"))).block();
+        assert p != null;
+
+        Product cached = productService.findById(p.getId()).block();
+        assert cached != null;
+        cached.setName("Apple iPod Touch");
+        assertEquals("Apple iPod", productService.findById(p.getId()).block().getName());
+
+        productService.save(cached).block();
+        assertEquals("Apple iPod Touch", productService.findById(p.getId()).block().getName());
+        assertNull(productService.findByName("Apple iPod").block());
+        assertEquals(p.getId(), productService.findByName("Apple iPod Touch").block().getId());
+    }
+
+    @Test
+    void handsOutCopiesThatShareNothingWithTheCache() {
+        Product p = productService.save(new Product("Apple iPod", 46.89, new Category("Electronics"))).block();
+        assert p != null;
+
+        Product cached = productService.findById(p.getId()).block();
+        assert cached != null;
+        cached.getCategory().setName("Music");
+        cached.getImageIds().add("front.jpg");
+
+        Product again = productService.findById(p.getId()).block();
+        assertEquals("Electronics", again.getCategory().getName());
+        assertTrue(again.getImageIds().isEmpty());
+    }
+
+    @Test
+    void forgetsDeletedProduct() {
+        Product p = productService.save(new Product("Apple iPod", 46.89, new Category("Electronics"))).block();
+        assert p != null;
+
+        productService.delete(p).block();
+
+        assertNull(productService.findById(p.getId()).block());
+    }
+
+    @Test
+    void appliesNewerVersionsWrittenElsewhere() {
+        Product p = new Product("Apple iPod", 46.89, new Category("Electronics"));
+        p.setVersion(2L);
+        productService.save(p).block();
+
+        Product older = new Product(p);
+        older.setVersion(1L);
+        older.setName("Apple iPod Nano");
+        productService.changed(p.getId(), older);
+        assertEquals("Apple iPod", productService.findById(p.getId()).block().getName());
+
+        Product newer = new Product(p);
+        newer.setVersion(3L);
+        newer.setName("Apple iPod Touch");
+        productService.changed(p.getId(), newer);
+        assertEquals("Apple iPod Touch", productService.findById(p.getId()).block().getName());
+        assertEquals(0, productService.stats().get("productsById").missCount());
+
+        productService.changed(p.getId(), null);
+        productService.findById(p.getId()).block();
+        assertEquals(1, productService.stats().get("productsById").missCount());
+    }
+
+    @Test
+    void resetForgetsProductsDeletedElsewhere() {
+        Product ipod = productService.save(new Product("Apple iPod", 46.89, new Category("Electronics"))).block();
+        Product tv = productService.save(new Product("TV Sony Bravia", 846.89, new Category("Electronics"))).block();
+        assert ipod != null && tv != null;
+        delegate.delete(ipod).block();
+
+        productService.reset();
+
+        assertTrue(searchIndex.search("ipod", 10).isEmpty());
+        assertEquals(Collections.singletonList(tv.getId()), searchIndex.search("sony", 10));
+        assertNull(productService.findById(ipod.getId()).block());
+    }
+}
@@ -0,0 +1,136 @@
+package com.pragma.webflux.api.service;
+
+import com.pragma.webflux.api.dao.CategoryRepository;
+import com.pragma.webflux.api.dao.EmbeddedMongo;
+import com.pragma.webflux.api.dao.ImagesRepository;
+import com.pragma.webflux.api.dao.ProductRepository;
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.repository.support.ReactiveMongoRepositoryFactory;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CategoryRegistryTests {
+
+    private ReactiveMongoTemplate template;
+    private ProductServiceImpl delegate;
+    private CategoryRegistry categories;
+    private CachingProductService productService;
+
+    @BeforeEach
+    void setUp() {
+        template = EmbeddedMongo.template();
+        ReactiveMongoRepositoryFactory repositories = new ReactiveMongoRepositoryFactory(template);
+        delegate = new ProductServiceImpl(repositories.getRepository(ProductRepository.class),
+                repositories.getRepository(CategoryRepository.class),
+                repositories.getRepository(ImagesRepository.class), template, null);
+        categories = new CategoryRegistry(delegate);
+        productService = new CachingProductService(delegate, new ProductSearchIndex(delegate), categories,
+                100, Duration.ofMinutes(1), 10, Duration.ofMinutes(1));
+    }
+
+    @Test
+    void embedsTheRegisteredCategory() {
+        Category electronics = productService.saveCategory(new Category("Electronics")).block();
+        assertNotNull(electronics);
+        Category stale = new Category("Old name");
+        stale.setId(electronics.getId());
+        Product product = new Product("Apple iPod", 46.89, stale);
+
+        assertTrue(categories.embed(product).block());
+        assertEquals("Electronics", product.getCategory().getName());
+
+        Category unknown = new Category("Electronics");
+        unknown.setId("62b9f1c4e4b0a1a2b3c4d5e6");
+        assertFalse(categories.embed(new Product("Apple iPod", 46.89, unknown)).block());
+    }
+
+    @Test
+    void looksUpCategoriesItHasNotHeardOf() {
+        Category garden = template.insert(new Category("Garden")).block();
+        assertNotNull(garden);
+        Category reference = new Category("Old name");
+        reference.setId(garden.getId());
+        Product rake = new Product("Rake", 10.0, reference);
+
+        assertNull(categories.find(garden.getId()));
+        assertTrue(categories.embed(rake).block());
+
+        assertEquals("Garden", rake.getCategory().getName());
+        assertEquals("Garden", categories.find(garden.getId()).getName());
+    }
+
+    @Test
+    void reloadKeepsOtherCategoriesAndDropsDeletedOnes() {
+        Category sports = productService.saveCategory(new Category("Sports")).block();
+        Category computing = template.insert(new Category("Computing")).block();
+        assertNotNull(sports);
+        assertNotNull(computing);
+        template.remove(sports).block();
+
+        assertEquals(1, categories.reload().block());
+
+        assertTrue(categories.isLoaded());
+        assertNull(categories.find(sports.getId()));
+        assertEquals("Computing", categories.find(computing.getId()).getName());
+        assertEquals(List.of("Computing"), productService.findAllCategories().map(Category::getName).collectList().block());
+    }
+
+    @Test
+    void renamingFansOutToProducts() {
+        Category electronics = productService.saveCategory(new Category("Electronics")).block();
+        Category sports = productService.saveCategory(new Category("Sports")).block();
+        assertNotNull(electronics);
+        Product tv = productService.save(new Product("TV", 456.89, electronics)).block();
+        productService.save(new Product("Camera", 177.89, electronics)).block();
+        productService.save(new Product("Bike", 70.89, sports)).block();
+        assertNotNull(tv);
+        assertEquals("Electronics", productService.findById(tv.getId()).map(p -> p.getCategory().getName()).block());
+
+        electronics.setName("Consumer Electronics");
+        productService.saveCategory(electronics).block();
+
+        Product renamed = productService.findById(tv.getId()).block();
+        assertNotNull(renamed);
+        assertEquals("Consumer Electronics", renamed.getCategory().getName());
+        assertEquals(tv.getVersion() + 1, renamed.getVersion());
+        assertEquals("Consumer Electronics", categories.find(electronics.getId()).getName());
+        assertEquals(2, productService.findAll().filter(p -> "Consumer Electronics".equals(p.getCategory().getName())).count().block());
+    }
+
+    @Test
+    void writesCommittedAfterARenameTakeTheNewName() {
+        ReactiveMongoRepositoryFactory repositories = new ReactiveMongoRepositoryFactory(template);
+        Product tv = new Product("TV", 456.89);
+        ProductServiceImpl racing = new ProductServiceImpl(repositories.getRepository(ProductRepository.class),
+                repositories.getRepository(CategoryRepository.class),
+                repositories.getRepository(ImagesRepository.class), template, null) {
+            @Override
+            public Mono<Category> saveCategory(Category category) {
+                return super.saveCategory(category)
+                        .flatMap(saved -> tv.getCategory() == null
+                                ? Mono.just(saved)
+                                : save(tv).thenReturn(saved));
+            }
+        };
+        CategoryRegistry registry = new CategoryRegistry(racing);
+        CachingProductService service = new CachingProductService(racing, new ProductSearchIndex(racing), registry,
+                100, Duration.ofMinutes(1), 10, Duration.ofMinutes(1));
+        Category electronics = service.saveCategory(new Category("Electronics")).block();
+        assertNotNull(electronics);
+        tv.setCategory(new Category(electronics));
+
+        electronics.setName("Consumer Electronics");
+        service.saveCategory(electronics).block();
+
+        assertNotNull(tv.getId());
+        assertEquals("Consumer Electronics", service.findById(tv.getId()).map(p -> p.getCategory().getName()).block());
+    }
+}
@@ -0,0 +1,109 @@
+package com.pragma.webflux.api.service;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.pragma.webflux.api.dao.EmbeddedMongo;
+import com.pragma.webflux.api.dao.InMemoryProductRepository;
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Product;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeStreamSubscriberTests {
+
+    private ReactiveMongoTemplate template;
+    private CategoryRegistry categories;
+    private ChangeStreamSubscriber subscriber;
+    private final List<String> changes = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        template = EmbeddedMongo.template();
+        ProductServiceImpl delegate = new ProductServiceImpl(InMemoryProductRepository.create(), null, null, template, null);
+        categories = new CategoryRegistry(delegate);
+        CachingProductService productService = new CachingProductService(delegate, new ProductSearchIndex(delegate), categories,
+                100, Duration.ofMinutes(1), 10, Duration.ofMinutes(1));
+        subscriber = new ChangeStreamSubscriber(template, productService, categories,
+                true, "test", Duration.ofMillis(100), Duration.ofMillis(100));
+        subscriber.register(Product.class, new ChangeListener<Product>() {
+            @Override
+            public void changed(String id, Product product) {
+                changes.add(id + "=" + (product == null ? null : product.getName()));
+            }
+
+            @Override
+            public void reset() {
+                changes.add("reset");
+            }
+        });
+    }
+
+    @Test
+    void fallsBackToTtlOnlyWithoutChangeStreams() {
+        subscriber.follow(Product.class).block(Duration.ofSeconds(5));
+
+        assertEquals(Set.of("products"), subscriber.ttlOnlyCollections());
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    void fansWritesOutToListeners() {
+        ObjectId id = new ObjectId();
+        Document document = new Document("_id", id).append("name", "Apple iPod").append("price", 46.89);
+
+        subscriber.dispatch(Product.class, event(OperationType.INSERT, new BsonObjectId(id), document, Product.class));
+        subscriber.dispatch(Product.class, event(OperationType.UPDATE, new BsonObjectId(id), null, Product.class));
+        subscriber.dispatch(Product.class, event(OperationType.DELETE, new BsonString("abc"), null, Product.class));
+        subscriber.dispatch(Product.class, event(OperationType.DROP, null, null, Product.class));
+
+        assertEquals(List.of(id.toHexString() + "=Apple iPod", id.toHexString() + "=null", "abc=null", "reset"), changes);
+    }
+
+    @Test
+    void savesResumeTokensPerInstance() {
+        BsonValue token = BsonDocument.parse("{\"_data\": \"8262B9F1C4000000012B022C0100296E5A1004\"}");
+
+        subscriber.saveToken("products", token).block();
+        subscriber.saveToken("products", token).block();
+
+        assertEquals(token, subscriber.loadToken("products").block());
+        assertNull(subscriber.loadToken("categories").block());
+        assertEquals(1, template.count(new Query(), ChangeStreamSubscriber.TOKENS_COLLECTION).block());
+    }
+
+    @Test
+    void keepsTheCategoryRegistryInStep() {
+        Document garden = new Document("_id", "c1").append("name", "Garden");
+
+        subscriber.dispatch(Category.class, event(OperationType.INSERT, new BsonString("c1"), garden, Category.class));
+        assertEquals("Garden", categories.find("c1").getName());
+
+        subscriber.dispatch(Category.class, event(OperationType.DELETE, new BsonString("c1"), null, Category.class));
+        assertNull(categories.find("c1"));
+        assertTrue(changes.isEmpty());
+    }
+
+    private <T> ChangeStreamEvent<T> event(OperationType operation, BsonValue id, Document document, Class<T> type) {
+        BsonDocument key = id == null ? null : new BsonDocument("_id", id);
+        ChangeStreamDocument<Document> raw = new ChangeStreamDocument<>(operation.getValue(),
+                BsonDocument.parse("{\"_data\": \"01\"}"), BsonDocument.parse("{\"db\": \"test\", \"coll\": \"" + template.getCollectionName(type) + "\"}"),
+                null, document, key, null, null, null, null);
+        return new ChangeStreamEvent<>(raw, type, template.getConverter());
+    }
+}
@@ -0,0 +1,92 @@
+package com.pragma.webflux.api.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileSystemImageStoreTests {
+
+    @TempDir
+    Path root;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private FileSystemImageStore imageStore;
+
+    @BeforeEach
+    void setUp() {
+        imageStore = new FileSystemImageStore(root.toString(), registry);
+    }
+
+    @Test
+    void storesIdenticalContentOnce() throws Exception {
+        String first = imageStore.store(content("tv", "panel"), "tv front.JPG").block();
+        String second = imageStore.store(content("tv", "panel"), "other.jpg").block();
+
+        assertEquals(first, second);
+        assertTrue(FileSystemImageStore.isKey(first));
+        assertTrue(first.endsWith(".jpg"));
+        assertEquals("tvpanel", Files.readString(imageStore.resolve(first)));
+        try (var files = Files.walk(root)) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+        assertEquals(7, registry.get(FileSystemImageStore.UPLOAD_BYTES).tag("result", "stored").summary().totalAmount());
+        assertEquals(1, registry.get(FileSystemImageStore.UPLOAD_BYTES).tag("result", "duplicate").summary().count());
+    }
+
+    @Test
+    void loadsStoredImagesOnly() {
+        String key = imageStore.store(content("tv"), "tv.jpg").block();
+        assert key != null;
+
+        assertNotNull(imageStore.load(key).block());
+        assertEquals("\"" + key.substring(0, 64) + "\"", imageStore.etag(key));
+        assertNull(imageStore.load("f".repeat(64) + ".jpg").block());
+        assertNull(imageStore.load("../application.yml").block());
+    }
+
+    @Test
+    void deletesOnlyUnreferencedImages() {
+        String kept = imageStore.store(content("kept"), "kept.png").block();
+        String orphan = imageStore.store(content("orphan"), "orphan.png").block();
+
+        assertEquals(0L, imageStore.deleteUnreferenced(Collections.singleton(kept), Duration.ofHours(1)).block());
+        assertEquals(1L, imageStore.deleteUnreferenced(Collections.singleton(kept), Duration.ZERO).block());
+
+        assertTrue(Files.exists(imageStore.resolve(kept)));
+        assertFalse(Files.exists(imageStore.resolve(orphan)));
+    }
+
+    @Test
+    void keepsReuploadedImagesThroughTheGracePeriod() throws Exception {
+        String key = imageStore.store(content("tv"), "tv.jpg").block();
+        assert key != null;
+        Files.setLastModifiedTime(imageStore.resolve(key), FileTime.from(Instant.now().minus(Duration.ofDays(1))));
+
+        assertEquals(key, imageStore.store(content("tv"), "tv.jpg").block());
+
+        assertEquals(0L, imageStore.deleteUnreferenced(Collections.emptySet(), Duration.ofHours(1)).block());
+        assertEquals("tv", Files.readString(imageStore.resolve(key)));
+        try (var files = Files.walk(root)) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    private static Flux<DataBuffer> content(String... chunks) {
+        return Flux.fromArray(chunks)
+                .map(chunk -> DefaultDataBufferFactory.sharedInstance.wrap(chunk.getBytes(StandardCharsets.UTF_8)));
+    }
+}
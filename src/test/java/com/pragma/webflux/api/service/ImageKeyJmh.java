@@ -0,0 +1,54 @@
+package com.pragma.webflux.api.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Derivation of the stored image name in {@link FileSystemImageStore}: SHA-256 of the
+ * uploaded chunks, hex encoding and extension normalization. It replaced the former
+ * filename sanitization chain of the upload handlers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageKeyJmh {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    @Param({"4096", "262144", "4194304"})
+    public int size;
+
+    private ByteBuffer[] chunks;
+
+    @Setup
+    public void setUp() {
+        byte[] content = new byte[size];
+        ThreadLocalRandom.current().nextBytes(content);
+        int count = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        chunks = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            int offset = i * CHUNK_SIZE;
+            chunks[i] = ByteBuffer.wrap(content, offset, Math.min(CHUNK_SIZE, size - offset)).slice();
+        }
+    }
+
+    @Benchmark
+    public String key() {
+        MessageDigest digest = FileSystemImageStore.sha256();
+        for (ByteBuffer chunk : chunks) {
+            digest.update(chunk.duplicate());
+        }
+        return FileSystemImageStore.toHex(digest.digest()) + FileSystemImageStore.extension("TV Sony Bravia front.JPG");
+    }
+}
@@ -0,0 +1,151 @@
+package com.pragma.webflux.api.service;
+
+import com.pragma.webflux.api.dao.CategoryRepository;
+import com.pragma.webflux.api.dao.EmbeddedMongo;
+import com.pragma.webflux.api.dao.ImagesRepository;
+import com.pragma.webflux.api.dao.ProductRepository;
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Product;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.repository.support.ReactiveMongoRepositoryFactory;
+import reactor.core.publisher.Flux;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageRenditionServiceTests {
+
+    @TempDir
+    Path root;
+
+    private FileSystemImageStore imageStore;
+    private ImageRenditionService renditionService;
+
+    @BeforeEach
+    void setUp() {
+        imageStore = new FileSystemImageStore(root.toString(), new SimpleMeterRegistry());
+        renditionService = new ImageRenditionService(null, imageStore, 150, 600, 1, 16, 40_000_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        renditionService.shutdown();
+    }
+
+    @Test
+    void rendersDownscaledCopies() throws Exception {
+        String key = store(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_RGB));
+
+        Map<String, String> renditions = renditionService.render(key).block();
+
+        assertNotNull(renditions);
+        BufferedImage thumbnail = ImageIO.read(imageStore.resolve(renditions.get(ImageRenditionService.THUMBNAIL)).toFile());
+        BufferedImage medium = ImageIO.read(imageStore.resolve(renditions.get(ImageRenditionService.MEDIUM)).toFile());
+        assertEquals(150, thumbnail.getWidth());
+        assertEquals(75, thumbnail.getHeight());
+        assertEquals(600, medium.getWidth());
+    }
+
+    @Test
+    void reusesOriginalWhenAlreadySmall() throws Exception {
+        String key = store(new BufferedImage(100, 80, BufferedImage.TYPE_INT_RGB));
+
+        Map<String, String> renditions = renditionService.render(key).block();
+
+        assertNotNull(renditions);
+        assertEquals(key, renditions.get(ImageRenditionService.THUMBNAIL));
+        assertEquals(key, renditions.get(ImageRenditionService.MEDIUM));
+    }
+
+    @Test
+    void subsamplesLargeOriginals() throws Exception {
+        String key = store(new BufferedImage(2500, 1250, BufferedImage.TYPE_BYTE_GRAY));
+
+        Map<String, String> renditions = renditionService.render(key).block();
+
+        assertNotNull(renditions);
+        BufferedImage thumbnail = ImageIO.read(imageStore.resolve(renditions.get(ImageRenditionService.THUMBNAIL)).toFile());
+        BufferedImage medium = ImageIO.read(imageStore.resolve(renditions.get(ImageRenditionService.MEDIUM)).toFile());
+        assertEquals(150, thumbnail.getWidth());
+        assertEquals(600, medium.getWidth());
+        assertEquals(300, medium.getHeight());
+    }
+
+    @Test
+    void refusesOriginalsOverThePixelLimit() throws Exception {
+        renditionService.shutdown();
+        renditionService = new ImageRenditionService(null, imageStore, 150, 600, 1, 16, 1000 * 500 - 1);
+        String key = store(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_RGB));
+
+        assertNull(renditionService.render(key).block());
+    }
+
+    @Test
+    void rendersAgainWhenTheRenditionFilesWereCollected() throws Exception {
+        ProductServiceImpl productService = productService();
+        renditionService.shutdown();
+        renditionService = new ImageRenditionService(productService, imageStore, 150, 600, 1, 16, 40_000_000);
+        String key = store(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_RGB));
+        productService.registerImage(key).block();
+
+        assertTrue(renditionService.refresh(key).block());
+        Map<String, String> renditions = productService.findImageById(key).block().getRenditions();
+        assertNull(renditionService.refresh(key).block());
+
+        Files.delete(imageStore.resolve(renditions.get(ImageRenditionService.THUMBNAIL)));
+        assertTrue(renditionService.refresh(key).block());
+        assertTrue(Files.isRegularFile(imageStore.resolve(renditions.get(ImageRenditionService.THUMBNAIL))));
+    }
+
+    @Test
+    void findsReferencedImagesWithTheirRenditions() throws Exception {
+        ProductServiceImpl productService = productService();
+        String key = store(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_RGB));
+        String small = store(new BufferedImage(100, 80, BufferedImage.TYPE_INT_RGB));
+        productService.registerImage(key).block();
+        Map<String, String> renditions = renditionService.render(key).block();
+        productService.setImageRenditions(key, renditions).block();
+        for (String imageKey : List.of(key, key, small)) {
+            Product product = new Product("TV Sony Bravia", 846.89, new Category("Electronics"));
+            product.getImageIds().add(imageKey);
+            productService.save(product).block();
+        }
+        productService.save(new Product("Apple iPod", 46.89, new Category("Electronics"))).block();
+
+        Set<String> referenced = new HashSet<>(productService.findReferencedImages().collectList().block());
+
+        Set<String> expected = new HashSet<>(renditions.values());
+        expected.add(key);
+        expected.add(small);
+        assertEquals(expected, referenced);
+    }
+
+    private ProductServiceImpl productService() {
+        ReactiveMongoTemplate template = EmbeddedMongo.template();
+        ReactiveMongoRepositoryFactory repositories = new ReactiveMongoRepositoryFactory(template);
+        return new ProductServiceImpl(repositories.getRepository(ProductRepository.class),
+                repositories.getRepository(CategoryRepository.class),
+                repositories.getRepository(ImagesRepository.class), template, imageStore);
+    }
+
+    private String store(BufferedImage image) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return imageStore.store(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(out.toByteArray())), "original.png").block();
+    }
+}
@@ -0,0 +1,58 @@
+package com.pragma.webflux.api.service;
+
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Product;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductFieldsTests {
+
+    @Test
+    void parsesSelectableFields() {
+        assertEquals(new HashSet<>(Arrays.asList("id", "name", "price")), ProductFields.parse("id, name,price"));
+        assertTrue(ProductFields.parse(null).isEmpty());
+        assertTrue(ProductFields.parse(" ").isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> ProductFields.parse("name,password"));
+    }
+
+    @Test
+    void projectsSelectedFieldsOnly() {
+        Query query = ProductFields.project(new Query(), ProductFields.parse("name,price"));
+
+        assertEquals(new Document("name", 1).append("price", 1), query.getFieldsObject());
+        assertTrue(ProductFields.project(new Query(), ProductFields.parse(null)).getFieldsObject().isEmpty());
+    }
+
+    @Test
+    void retainsSelectedFieldsInMemory() {
+        Product product = new Product("TV", 10.0, new Category("Electronics"));
+        product.setId("1");
+        product.setCreateAt(new Date());
+        product.setVersion(3L);
+        product.getImageIds().add("key");
+
+        Product projected = ProductFields.retain(product, ProductFields.parse("name"));
+
+        assertEquals("1", projected.getId());
+        assertEquals("TV", projected.getName());
+        assertNull(projected.getPrice());
+        assertNull(projected.getCreateAt());
+        assertNull(projected.getCategory());
+        assertNull(projected.getVersion());
+        assertTrue(projected.getImageIds().isEmpty());
+    }
+
+    @Test
+    void addsRequiredFieldsToSelection() {
+        assertEquals(new HashSet<>(Arrays.asList("name", "price")),
+                ProductFields.including(ProductFields.parse("name"), ProductCursor.SORT_PRICE));
+        assertTrue(ProductFields.including(ProductFields.parse(null), ProductCursor.SORT_PRICE).isEmpty());
+    }
+}
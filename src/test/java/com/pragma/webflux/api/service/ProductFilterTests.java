@@ -0,0 +1,59 @@
+package com.pragma.webflux.api.service;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductFilterTests {
+
+    @Test
+    void compilesPredicatesToOneQuery() {
+        ProductFilter filter = ProductFilter.of("c1", "10", "99.5", "2024-01-01", "2024-01-31", "price");
+
+        Query query = filter.toQuery(filter.getSort(), Collections.emptyList());
+
+        Document expected = Document.parse("{$and: ["
+                + "{'category.id': 'c1'},"
+                + "{price: {$gte: 10.0, $lte: 99.5}},"
+                + "{createAt: {$gte: {$date: '2024-01-01T00:00:00Z'}, $lt: {$date: '2024-02-01T00:00:00Z'}}}]}");
+        assertEquals(expected.toJson(), query.getQueryObject().toJson());
+        assertEquals(new Document("price", 1).append("id", 1), query.getSortObject());
+    }
+
+    @Test
+    void addsKeysetCriteria() {
+        ProductFilter filter = ProductFilter.of(null, "10", null, null, null, null);
+
+        Query query = filter.toQuery(filter.getSortOrDefault(), Collections.singletonList(Criteria.where("id").gt("a")));
+
+        assertEquals(Document.parse("{$and: [{price: {$gte: 10.0}}, {id: {$gt: 'a'}}]}").toJson(), query.getQueryObject().toJson());
+        assertEquals(new Document("id", 1), query.getSortObject());
+    }
+
+    @Test
+    void acceptsInstantsAndEmptyParameters() {
+        ProductFilter filter = ProductFilter.of(" ", null, "", "2024-01-01T10:15:30Z", null, null);
+
+        assertEquals(Date.from(Instant.parse("2024-01-01T10:15:30Z")), filter.getCreatedFrom());
+        assertNull(filter.getCategoryId());
+        assertFalse(filter.isEmpty());
+        assertTrue(ProductFilter.of(null, null, null, null, null, null).isEmpty());
+        assertTrue(ProductFilter.NONE.toQuery(null, Collections.emptyList()).getQueryObject().isEmpty());
+    }
+
+    @Test
+    void rejectsInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> ProductFilter.of(null, "ten", null, null, null, null));
+        assertThrows(IllegalArgumentException.class, () -> ProductFilter.of(null, "20", "10", null, null, null));
+        assertThrows(IllegalArgumentException.class, () -> ProductFilter.of(null, null, null, "yesterday", null, null));
+        assertThrows(IllegalArgumentException.class, () -> ProductFilter.of(null, null, null, "2024-02-01", "2024-01-01", null));
+        assertThrows(IllegalArgumentException.class, () -> ProductFilter.of(null, null, null, null, null, "name"));
+    }
+}
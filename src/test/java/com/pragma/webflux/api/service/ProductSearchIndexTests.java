@@ -0,0 +1,101 @@
+package com.pragma.webflux.api.service;
+
+import com.pragma.webflux.api.dao.CategoryRepository;
+import com.pragma.webflux.api.dao.EmbeddedMongo;
+import com.pragma.webflux.api.dao.ImagesRepository;
+import com.pragma.webflux.api.dao.ProductRepository;
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.repository.support.ReactiveMongoRepositoryFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductSearchIndexTests {
+
+    private ProductSearchIndex searchIndex;
+
+    @BeforeEach
+    void setUp() {
+        searchIndex = new ProductSearchIndex(null);
+        searchIndex.index(product("1", "Mica Cómoda 5 Cajones", "f", "Furniture"));
+        searchIndex.index(product("2", "Sony Camara HD Digital", "e", "Electronics"));
+        searchIndex.index(product("3", "Sony Notebook", "c", "Computing"));
+    }
+
+    @Test
+    void foldsAccentsAndCase() {
+        assertEquals(Collections.singletonList("1"), searchIndex.search("COMODA", 10));
+        assertEquals(Collections.singletonList("2"), searchIndex.search("cámara", 10));
+        assertEquals(Arrays.asList("mica", "comoda", "5", "cajones"), ProductSearchIndex.tokenize("Mica Cómoda 5 Cajones"));
+    }
+
+    @Test
+    void matchesEveryTermAsPrefix() {
+        assertEquals(Arrays.asList("2", "3"), searchIndex.search("so", 10));
+        assertEquals(Collections.singletonList("3"), searchIndex.search("son note", 10));
+        assertEquals(Collections.singletonList("2"), searchIndex.search("sony elec", 10));
+        assertEquals(Collections.singletonList("2"), searchIndex.search("so", 1));
+        assertTrue(searchIndex.search("sony furniture", 10).isEmpty());
+        assertTrue(searchIndex.search(" - ", 10).isEmpty());
+    }
+
+    @Test
+    void replacesAndRemovesProducts() {
+        searchIndex.index(product("3", "HP Notebook Omen 17", "c", "Computing"));
+        searchIndex.remove("1");
+
+        assertEquals(Collections.singletonList("2"), searchIndex.search("sony", 10));
+        assertEquals(Collections.singletonList("3"), searchIndex.search("omen", 10));
+        assertTrue(searchIndex.search("cajones", 10).isEmpty());
+        assertEquals(2, searchIndex.size());
+
+        searchIndex.removeAll(Arrays.asList("2", "3"), "e");
+        assertEquals(Collections.singletonList("3"), searchIndex.search("notebook", 10));
+        searchIndex.removeAll(null, "c");
+        assertEquals(0, searchIndex.size());
+    }
+
+    @Test
+    void keepsResultsAcrossCompaction() {
+        for (int i = 0; i < 3000; i++) {
+            searchIndex.index(product("2", "Sony Camara HD Digital " + i, "e", "Electronics"));
+        }
+
+        assertEquals(Arrays.asList("3", "2"), searchIndex.search("sony", 10));
+        assertEquals(Collections.singletonList("2"), searchIndex.search("2999", 10));
+        assertTrue(searchIndex.search("1500", 10).isEmpty());
+        assertEquals(3, searchIndex.size());
+    }
+
+    @Test
+    void rebuildDropsProductsNoLongerStored() {
+        ReactiveMongoTemplate template = EmbeddedMongo.template();
+        ReactiveMongoRepositoryFactory repositories = new ReactiveMongoRepositoryFactory(template);
+        ProductRepository repository = repositories.getRepository(ProductRepository.class);
+        repository.save(product("1", "Mica Cómoda 5 Cajones", "f", "Furniture")).block();
+        ProductSearchIndex rebuilt = new ProductSearchIndex(new ProductServiceImpl(repository,
+                repositories.getRepository(CategoryRepository.class),
+                repositories.getRepository(ImagesRepository.class), template, null));
+        rebuilt.index(product("9", "Ghost Lamp", "f", "Furniture"));
+
+        assertEquals(1, rebuilt.rebuild().block());
+
+        assertTrue(rebuilt.search("ghost", 10).isEmpty());
+        assertEquals(Collections.singletonList("1"), rebuilt.search("comoda", 10));
+        assertEquals(1, rebuilt.size());
+    }
+
+    private static Product product(String id, String name, String categoryId, String categoryName) {
+        Category category = new Category(categoryName);
+        category.setId(categoryId);
+        Product product = new Product(name, 1.0, category);
+        product.setId(id);
+        return product;
+    }
+}
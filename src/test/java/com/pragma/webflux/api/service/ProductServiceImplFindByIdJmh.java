@@ -0,0 +1,94 @@
+package com.pragma.webflux.api.service;
+
+import ch.qos.logback.classic.Level;
+import com.pragma.webflux.api.dao.CategoryRepository;
+import com.pragma.webflux.api.dao.EmbeddedMongo;
+import com.pragma.webflux.api.dao.ImagesRepository;
+import com.pragma.webflux.api.dao.ProductRepository;
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Product;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.repository.support.ReactiveMongoRepositoryFactory;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * {@link ProductServiceImpl#findById(String)} through the repository, the {@link ReactiveMongoTemplate}
+ * and the driver against the {@link EmbeddedMongo} server, which resolves {@code _id} filters
+ * with its {@code _id} index. Latency should be flat from 10 to 1M products, {@link #scanById()}
+ * is the former lookup, reading the whole collection and filtering it by id, and grows with it.
+ * Run with {@code mvn test -Pbenchmark -Djmh.include=ProductServiceImplFindByIdJmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(jvmArgsAppend = "-Xmx4g")
+public class ProductServiceImplFindByIdJmh {
+
+    private static final int SEED_BATCH_SIZE = 10_000;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int products;
+
+    private ProductRepository repository;
+    private ProductServiceImpl service;
+    private List<String> ids;
+
+    @Setup
+    public void setUp() {
+        // the forked JVM has no logging configuration, the mapping layer would log at DEBUG
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        ReactiveMongoTemplate template = EmbeddedMongo.template();
+        ReactiveMongoRepositoryFactory repositories = new ReactiveMongoRepositoryFactory(template);
+        repository = repositories.getRepository(ProductRepository.class);
+        service = new ProductServiceImpl(repository, repositories.getRepository(CategoryRepository.class),
+                repositories.getRepository(ImagesRepository.class), template, null);
+        Category category = new Category("Electronics");
+        category.setId("electronics");
+        ids = Flux.range(0, products)
+                .map(i -> {
+                    Product product = new Product("Product " + i, (double) i, category);
+                    product.setId(new ObjectId().toHexString());
+                    return product;
+                })
+                .buffer(SEED_BATCH_SIZE)
+                .concatMap(template::insertAll)
+                .map(Product::getId)
+                .collect(Collectors.toList())
+                .block();
+    }
+
+    @Benchmark
+    public Product findById() {
+        return service.findById(randomId()).block();
+    }
+
+    @Benchmark
+    public Product scanById() {
+        String id = randomId();
+        return repository.findAll()
+                .filter(product -> product.getId().equals(id))
+                .next()
+                .block();
+    }
+
+    private String randomId() {
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+}
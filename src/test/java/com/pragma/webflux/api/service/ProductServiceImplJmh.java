@@ -0,0 +1,73 @@
+package com.pragma.webflux.api.service;
+
+import com.pragma.webflux.api.dao.InMemoryProductRepository;
+import com.pragma.webflux.api.dao.ProductRepository;
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ProductServiceImpl} over the in-memory repository, so the numbers cover the
+ * service and Reactor overhead without any Mongo round trip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProductServiceImplJmh {
+
+    @Param({"1000", "100000"})
+    public int products;
+
+    private ProductServiceImpl service;
+    private List<String> ids;
+    private Product existing;
+
+    @Setup
+    public void setUp() {
+        ProductRepository repository = InMemoryProductRepository.create();
+        service = new ProductServiceImpl(repository, null, null, null, null);
+        Category category = new Category("Electronics");
+        category.setId("electronics");
+        ids = Flux.range(0, products)
+                .map(i -> new Product("Product " + i, (double) i, category))
+                .concatMap(repository::save)
+                .map(Product::getId)
+                .collectList()
+                .block();
+        existing = service.findById(ids.get(0)).block();
+    }
+
+    @Benchmark
+    public Product findById() {
+        return service.findById(ids.get(ThreadLocalRandom.current().nextInt(ids.size()))).block();
+    }
+
+    @Benchmark
+    public Product findByIdWithNameUppercase() {
+        return service.findByIdWithNameUppercase(ids.get(ThreadLocalRandom.current().nextInt(ids.size())),
+                ProductFields.parse(null)).block();
+    }
+
+    @Benchmark
+    public Product save() {
+        return service.save(existing).block();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Long findAll() {
+        return service.findAll().count().block();
+    }
+}
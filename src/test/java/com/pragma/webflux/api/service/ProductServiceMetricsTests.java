@@ -0,0 +1,58 @@
+package com.pragma.webflux.api.service;
+
+import com.pragma.webflux.api.dao.InMemoryProductRepository;
+import com.pragma.webflux.api.model.Category;
+import com.pragma.webflux.api.model.Product;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Proxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductServiceMetricsTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private IProductService productService;
+
+    @BeforeEach
+    void setUp() {
+        productService = ProductServiceMetrics.timed(
+                new ProductServiceImpl(InMemoryProductRepository.create(), null, null, null, null), registry);
+    }
+
+    @Test
+    void timesReactiveCallsOnSubscription() {
+        Product saved = productService.save(new Product("Apple iPod", 46.89, new Category("Electronics"))).block();
+        assert saved != null;
+
+        productService.findById(saved.getId());
+        assertNull(registry.find(ProductServiceMetrics.TIMER).tag("method", "findById").timer());
+
+        productService.findById(saved.getId()).block();
+        productService.findAll().collectList().block();
+
+        assertEquals(1, timerCount("save", "success"));
+        assertEquals(1, timerCount("findById", "success"));
+        assertEquals(1, timerCount("findAll", "success"));
+    }
+
+    @Test
+    void tagsFailedCalls() {
+        IProductService failing = ProductServiceMetrics.timed((IProductService) Proxy.newProxyInstance(
+                IProductService.class.getClassLoader(),
+                new Class<?>[]{IProductService.class},
+                (proxy, method, args) -> Mono.error(new IllegalStateException("Mongo is down"))), registry);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> failing.deleteById("1").block());
+
+        assertEquals("Mongo is down", e.getMessage());
+        assertEquals(1, timerCount("deleteById", "error"));
+    }
+
+    private long timerCount(String method, String outcome) {
+        return registry.get(ProductServiceMetrics.TIMER).tag("method", method).tag("outcome", outcome).timer().count();
+    }
+}
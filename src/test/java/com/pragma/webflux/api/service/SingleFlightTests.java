@@ -0,0 +1,92 @@
+package com.pragma.webflux.api.service;
+
+import com.pragma.webflux.api.model.Product;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTests {
+
+    private final SingleFlight<String, Product> singleFlight = new SingleFlight<>(Product::new);
+    private final AtomicInteger calls = new AtomicInteger();
+    private final Sinks.One<Product> result = Sinks.one();
+
+    private Mono<Product> find(String id) {
+        calls.incrementAndGet();
+        return result.asMono();
+    }
+
+    @Test
+    void concurrentCallsShareOneRoundTrip() {
+        Mono<Product> first = singleFlight.execute("1", this::find);
+        Mono<Product> second = singleFlight.execute("1", this::find);
+
+        StepVerifier.create(Mono.zip(first, second))
+                .then(() -> {
+                    assertEquals(1, singleFlight.size());
+                    result.tryEmitValue(new Product("Apple iPod", 46.89));
+                })
+                .assertNext(products -> {
+                    assertEquals("Apple iPod", products.getT1().getName());
+                    assertNotSame(products.getT1(), products.getT2());
+                })
+                .verifyComplete();
+
+        assertEquals(1, calls.get());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    void callsAfterCompletionStartAnew() {
+        result.tryEmitEmpty();
+
+        StepVerifier.create(singleFlight.execute("1", this::find)).verifyComplete();
+        StepVerifier.create(singleFlight.execute("1", this::find)).verifyComplete();
+
+        assertEquals(2, calls.get());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    void differentKeysDoNotShare() {
+        singleFlight.execute("1", this::find).subscribe();
+        singleFlight.execute("2", this::find).subscribe();
+
+        assertEquals(2, calls.get());
+        assertEquals(2, singleFlight.size());
+    }
+
+    @Test
+    void errorsReachEveryCallerAndClearTheKey() {
+        Mono<Product> first = singleFlight.execute("1", this::find);
+        Mono<Product> second = singleFlight.execute("1", this::find);
+
+        StepVerifier.create(Mono.zip(first, second))
+                .then(() -> result.tryEmitError(new IllegalStateException("down")))
+                .verifyErrorMessage("down");
+
+        assertEquals(1, calls.get());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    void cancellingTheFirstCallerDoesNotCancelTheOthers() {
+        Disposable first = singleFlight.execute("1", this::find).subscribe();
+        Mono<Product> second = singleFlight.execute("1", this::find);
+
+        StepVerifier.create(second)
+                .then(() -> {
+                    first.dispose();
+                    result.tryEmitValue(new Product("Apple iPod", 46.89));
+                })
+                .expectNextMatches(product -> "Apple iPod".equals(product.getName()))
+                .verifyComplete();
+        assertEquals(1, calls.get());
+    }
+}